@@ -0,0 +1,35 @@
+package com.hanihashemi.imagepicker.benchmark;
+
+import com.hanihashemi.imagepicker.utils.BitmapUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BitmapUtilsBenchmark {
+    // Camera, screenshot, panorama and already small images
+    private final int[][] sources = {{4000, 3000}, {8000, 6000}, {1080, 1920}, {12000, 2000}, {400, 300}};
+
+    @Benchmark
+    public void getScaledDimensions(Blackhole blackhole) {
+        for (int[] source : sources) {
+            blackhole.consume(BitmapUtils.getScaledDimensions(source[0], source[1], 500, 500));
+        }
+    }
+
+    @Benchmark
+    public void calculateInSampleSize(Blackhole blackhole) {
+        for (int[] source : sources) {
+            blackhole.consume(BitmapUtils.calculateInSampleSize(source[0], source[1], 500, 375));
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.hanihashemi.imagepicker.benchmark;
+
+import com.hanihashemi.imagepicker.utils.FileUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies of photo sized files, through the file channel path and through the stream path which content
+ * providers backed by pipes take.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FileUtilsBenchmark {
+    @Param({"262144", "5242880", "20971520"})
+    public int size;
+
+    private File directory;
+    private File source;
+    private File destination;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createDirectory("copy");
+        source = new File(directory, "source.jpg");
+        destination = new File(directory, "destination.jpg");
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        FileOutputStream output = new FileOutputStream(source);
+        try {
+            output.write(content);
+        } finally {
+            output.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public long copyLargeFileStreams() throws IOException {
+        return copy(new FileInputStream(source));
+    }
+
+    @Benchmark
+    public long copyLargeOtherStreams() throws IOException {
+        return copy(new BufferedInputStream(new FileInputStream(source)));
+    }
+
+    @Benchmark
+    public void copyFile() throws IOException {
+        FileUtils.copyFile(source, destination);
+    }
+
+    private long copy(InputStream input) throws IOException {
+        FileOutputStream output = new FileOutputStream(destination);
+        try {
+            return FileUtils.copyLarge(input, output);
+        } finally {
+            input.close();
+            output.close();
+        }
+    }
+}
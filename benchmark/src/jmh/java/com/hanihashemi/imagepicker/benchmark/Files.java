@@ -0,0 +1,28 @@
+package com.hanihashemi.imagepicker.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+
+final class Files {
+    private Files() {
+    }
+
+    static File createDirectory(String prefix) throws IOException {
+        File directory = File.createTempFile(prefix, "");
+        if (!directory.delete() || !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        return directory;
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+}
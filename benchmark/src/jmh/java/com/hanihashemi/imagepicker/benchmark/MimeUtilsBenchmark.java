@@ -0,0 +1,28 @@
+package com.hanihashemi.imagepicker.benchmark;
+
+import com.hanihashemi.imagepicker.utils.MimeUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MimeUtilsBenchmark {
+    // Mixed case like the extensions found in real file names, including unknown ones
+    private final String[] extensions = {"jpg", "JPEG", "png", "webp", "mp4", "MOV", "pdf", "heic", "txt", "Gif"};
+
+    @Benchmark
+    public void guessMimeTypeFromExtension(Blackhole blackhole) {
+        for (String extension : extensions) {
+            blackhole.consume(MimeUtils.guessMimeTypeFromExtension(extension));
+        }
+    }
+}
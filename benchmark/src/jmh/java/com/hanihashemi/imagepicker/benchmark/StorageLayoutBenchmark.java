@@ -0,0 +1,85 @@
+package com.hanihashemi.imagepicker.benchmark;
+
+import com.hanihashemi.imagepicker.core.storage.StorageLayout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reserving names for a batch of imports in a cache location which already holds a number of files, the
+ * naming logic of FileProcessorThread.generateFileName.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StorageLayoutBenchmark {
+    private final static int BATCH = 100;
+
+    @Param({"0", "10000"})
+    public int existingFiles;
+
+    private File root;
+    private StorageLayout layout;
+    private String[] names;
+
+    private File[] reserved;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Files.createDirectory("layout");
+        layout = StorageLayout.getInstance(root);
+        for (int i = 0; i < existingFiles; i++) {
+            layout.reserve(getCameraName(i));
+        }
+        names = new String[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            // Half of the batch collides with files already stored
+            names[i] = getCameraName(i % 2 == 0 ? i : existingFiles + i);
+        }
+        reserved = new File[BATCH];
+    }
+
+    /**
+     * Give the names of the batch back, so every invocation finds the same layout
+     */
+    @TearDown(Level.Invocation)
+    public void releaseBatch() {
+        for (File file : reserved) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+            layout.release(file);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Files.delete(root);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public File[] reserve() {
+        for (int i = 0; i < BATCH; i++) {
+            reserved[i] = layout.reserve(names[i]);
+        }
+        return reserved;
+    }
+
+    private static String getCameraName(int index) {
+        return String.format(Locale.US, "IMG_20170801_%06d.jpg", index);
+    }
+}
@@ -0,0 +1,38 @@
+package com.hanihashemi.imagepicker.benchmark;
+
+import com.hanihashemi.imagepicker.utils.StreamHelper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StreamHelperBenchmark {
+    @Param({"65536", "5242880"})
+    public int size;
+
+    private byte[] content;
+
+    @Setup
+    public void setUp() {
+        content = new byte[size];
+        new Random(size).nextBytes(content);
+    }
+
+    @Benchmark
+    public byte[] toByteArray() throws IOException {
+        return StreamHelper.toByteArray(new ByteArrayInputStream(content));
+    }
+}
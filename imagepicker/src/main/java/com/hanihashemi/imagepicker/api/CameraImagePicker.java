@@ -4,9 +4,14 @@ import android.app.Activity;
 import android.support.v4.app.Fragment;
 
 import com.hanihashemi.imagepicker.api.callbacks.ImagePickerCallback;
+import com.hanihashemi.imagepicker.api.callbacks.PickerMetricsListener;
+import com.hanihashemi.imagepicker.api.entity.ChosenImage;
 import com.hanihashemi.imagepicker.core.PickerImpl;
+import com.hanihashemi.imagepicker.core.cache.ThumbnailCache;
 import com.yalantis.ucrop.UCrop;
 
+import java.util.concurrent.Executor;
+
 /**
  * Capture an image using the device's camera.
  */
@@ -74,6 +79,34 @@ public final class CameraImagePicker extends PickerImpl {
             return this;
         }
 
+        /**
+         * Deliver the images without thumbnails, and render each thumbnail the first time it is asked for through
+         * {@link ChosenImage#getThumbnails()}, so none are rendered for images that are never shown. Default value
+         * is {@link Boolean#FALSE}
+         */
+        public Builder shouldGenerateThumbnailsOnDemand(boolean generateThumbnailsOnDemand) {
+            cameraImagePicker.shouldGenerateThumbnailsOnDemand(generateThumbnailsOnDemand);
+            return this;
+        }
+
+        /**
+         * Reuse the thumbnails generated for the same image content in an earlier pick, instead of generating
+         * them again. Hits and misses are counted by {@link ThumbnailCache}. Default value is {@link Boolean#FALSE}
+         */
+        public Builder shouldCacheThumbnails(boolean cacheThumbnails) {
+            cameraImagePicker.shouldCacheThumbnails(cacheThumbnails);
+            return this;
+        }
+
+        /**
+         * Hash every imported file while it is copied (see {@link ChosenImage#getDigest()}), and reuse an earlier
+         * import with the same content instead of storing another copy. Default value is {@link Boolean#FALSE}
+         */
+        public Builder shouldDeduplicate(boolean deduplicate) {
+            cameraImagePicker.shouldDeduplicate(deduplicate);
+            return this;
+        }
+
         /**
          * Use this method to set the max size of the generated image. The final bitmap will be downscaled based on
          * these values.
@@ -99,6 +132,41 @@ public final class CameraImagePicker extends PickerImpl {
             return this;
         }
 
+        /**
+         * Executor on which the picked images are processed. Default is a shared pool sized by the device
+         */
+        public Builder setExecutor(Executor executor) {
+            cameraImagePicker.setExecutor(executor);
+            return this;
+        }
+
+        /**
+         * Format and quality of the resized image and the thumbnails, and whether lossless sources stay lossless.
+         * Default is JPEG with quality 100 for all outputs
+         */
+        public Builder setOutputEncoder(OutputEncoder encoder) {
+            cameraImagePicker.setOutputEncoder(encoder);
+            return this;
+        }
+
+        /**
+         * Largest bitmap an image is decoded to at once. Larger images, like panoramas, are decoded in bands, so
+         * they don't run out of memory. Default is an eighth of the heap
+         */
+        public Builder setMaxDecodeBytes(long bytes) {
+            cameraImagePicker.setMaxDecodeBytes(bytes);
+            return this;
+        }
+
+        /**
+         * Listener for the timing and memory figures of every processing stage, and a summary per batch.
+         * It is called on the worker threads.
+         */
+        public Builder setMetricsListener(PickerMetricsListener listener) {
+            cameraImagePicker.setMetricsListener(listener);
+            return this;
+        }
+
         /**
          * UCrop options
          */
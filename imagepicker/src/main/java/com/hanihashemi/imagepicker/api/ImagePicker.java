@@ -4,9 +4,14 @@ import android.app.Activity;
 import android.support.v4.app.Fragment;
 
 import com.hanihashemi.imagepicker.api.callbacks.ImagePickerCallback;
+import com.hanihashemi.imagepicker.api.callbacks.PickerMetricsListener;
+import com.hanihashemi.imagepicker.api.entity.ChosenImage;
 import com.hanihashemi.imagepicker.core.PickerImpl;
+import com.hanihashemi.imagepicker.core.cache.ThumbnailCache;
 import com.yalantis.ucrop.UCrop;
 
+import java.util.concurrent.Executor;
+
 /**
  * Choose an image(s) on your device. Gallery, Google Photos, Dropbox etc.
  */
@@ -82,6 +87,34 @@ public final class ImagePicker extends PickerImpl {
             return this;
         }
 
+        /**
+         * Deliver the images without thumbnails, and render each thumbnail the first time it is asked for through
+         * {@link ChosenImage#getThumbnails()}, so none are rendered for images that are never shown. Default value
+         * is {@link Boolean#FALSE}
+         */
+        public Builder shouldGenerateThumbnailsOnDemand(boolean generateThumbnailsOnDemand) {
+            imagePicker.shouldGenerateThumbnailsOnDemand(generateThumbnailsOnDemand);
+            return this;
+        }
+
+        /**
+         * Reuse the thumbnails generated for the same image content in an earlier pick, instead of generating
+         * them again. Hits and misses are counted by {@link ThumbnailCache}. Default value is {@link Boolean#FALSE}
+         */
+        public Builder shouldCacheThumbnails(boolean cacheThumbnails) {
+            imagePicker.shouldCacheThumbnails(cacheThumbnails);
+            return this;
+        }
+
+        /**
+         * Hash every imported file while it is copied (see {@link ChosenImage#getDigest()}), and reuse an earlier
+         * import with the same content instead of storing another copy. Default value is {@link Boolean#FALSE}
+         */
+        public Builder shouldDeduplicate(boolean deduplicate) {
+            imagePicker.shouldDeduplicate(deduplicate);
+            return this;
+        }
+
         /**
          * Use this method to set the max size of the generated image. The final bitmap will be downscaled based on
          * these values.
@@ -108,6 +141,70 @@ public final class ImagePicker extends PickerImpl {
             return this;
         }
 
+        /**
+         * Executor on which the picked images are processed. Default is a shared pool sized by the device
+         */
+        public Builder setExecutor(Executor executor) {
+            imagePicker.setExecutor(executor);
+            return this;
+        }
+
+        /**
+         * Format and quality of the resized image and the thumbnails, and whether lossless sources stay lossless.
+         * Default is JPEG with quality 100 for all outputs
+         */
+        public Builder setOutputEncoder(OutputEncoder encoder) {
+            imagePicker.setOutputEncoder(encoder);
+            return this;
+        }
+
+        /**
+         * Cache up to the given number of bytes of images picked from http(s) URLs. Picking the same URL again
+         * reuses the cached image, after checking with the server that it didn't change. Default is 0, no cache
+         */
+        public Builder setHttpCacheSize(long bytes) {
+            imagePicker.setHttpCacheSize(bytes);
+            return this;
+        }
+
+        /**
+         * Largest bitmap an image is decoded to at once. Larger images, like panoramas, are decoded in bands, so
+         * they don't run out of memory. Default is an eighth of the heap
+         */
+        public Builder setMaxDecodeBytes(long bytes) {
+            imagePicker.setMaxDecodeBytes(bytes);
+            return this;
+        }
+
+        /**
+         * Number of images created and processed at once when the callback is a
+         * {@link com.hanihashemi.imagepicker.api.callbacks.ChunkedImagePickerCallback}, which gets one
+         * <code>onImagesChosen</code> call per chunk. Default is 32
+         */
+        public Builder setChunkSize(int chunkSize) {
+            imagePicker.setChunkSize(chunkSize);
+            return this;
+        }
+
+        /**
+         * Keep an on-disk journal of every batch, so when the app is killed while images are processed, the batch
+         * continues where it stopped. Resume it with {@link ImagePicker#resumeInterruptedBatch()}, or by picking
+         * the same images again, e.g. when a share intent is delivered again. Default is false
+         */
+        public Builder shouldResumeInterruptedBatches(boolean resume) {
+            imagePicker.shouldResumeInterruptedBatches(resume);
+            return this;
+        }
+
+        /**
+         * Listener for the timing and memory figures of every processing stage, and a summary per batch.
+         * It is called on the worker threads.
+         */
+        public Builder setMetricsListener(PickerMetricsListener listener) {
+            imagePicker.setMetricsListener(listener);
+            return this;
+        }
+
         /**
          * UCrop options
          */
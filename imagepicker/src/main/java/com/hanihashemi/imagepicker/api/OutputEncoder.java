@@ -0,0 +1,137 @@
+package com.hanihashemi.imagepicker.api;
+
+import android.graphics.Bitmap;
+
+/**
+ * How the images written by the picker are encoded: the resized copy of the picked image (see
+ * <code>ensureMaxSize</code>) and the two thumbnails.
+ * <p/>
+ * The default encodes everything as JPEG with quality 100. Lower qualities make the outputs several times smaller.
+ */
+public final class OutputEncoder {
+    /**
+     * The resized copy of the picked image
+     */
+    public final static int OUTPUT_RESIZED = 0;
+    /**
+     * The thumbnail, see {@link com.hanihashemi.imagepicker.api.entity.ChosenImage#getThumbnailPath()}
+     */
+    public final static int OUTPUT_THUMBNAIL = 1;
+    /**
+     * The small thumbnail, see {@link com.hanihashemi.imagepicker.api.entity.ChosenImage#getThumbnailSmallPath()}
+     */
+    public final static int OUTPUT_THUMBNAIL_SMALL = 2;
+
+    public final static OutputEncoder DEFAULT = new Builder().build();
+
+    private Bitmap.CompressFormat format = Bitmap.CompressFormat.JPEG;
+    private final int[] qualities = {100, 100, 100};
+    private boolean keepLosslessSources;
+
+    private OutputEncoder() {
+    }
+
+    /**
+     * Format of the output. PNG when the source is lossless and {@link Builder#keepLosslessSources(boolean)} is set.
+     *
+     * @param sourceMimeType mime type of the picked image, may be null
+     */
+    public Bitmap.CompressFormat getFormat(String sourceMimeType) {
+        if (keepLosslessSources && isLossless(sourceMimeType)) {
+            return Bitmap.CompressFormat.PNG;
+        }
+        return format;
+    }
+
+    /**
+     * @param output one of {@link #OUTPUT_RESIZED}, {@link #OUTPUT_THUMBNAIL} or {@link #OUTPUT_THUMBNAIL_SMALL}
+     */
+    public int getQuality(int output) {
+        return qualities[output];
+    }
+
+    /**
+     * Extension of the files written in the given format, including the dot
+     */
+    public static String getExtension(Bitmap.CompressFormat format) {
+        switch (format) {
+            case PNG:
+                return ".png";
+            case WEBP:
+                return ".webp";
+            default:
+                return ".jpg";
+        }
+    }
+
+    public static String getMimeType(Bitmap.CompressFormat format) {
+        switch (format) {
+            case PNG:
+                return "image/png";
+            case WEBP:
+                return "image/webp";
+            default:
+                return "image/jpeg";
+        }
+    }
+
+    /**
+     * Short description of how an output is encoded, e.g. <code>q80.webp</code>. Outputs encoded differently get
+     * different specs, so they are never mistaken for each other in a cache.
+     */
+    public String getSpec(int output, String sourceMimeType) {
+        Bitmap.CompressFormat format = getFormat(sourceMimeType);
+        String extension = getExtension(format);
+        if (format == Bitmap.CompressFormat.PNG) {
+            return extension.substring(1);
+        }
+        return "q" + getQuality(output) + extension;
+    }
+
+    private static boolean isLossless(String mimeType) {
+        return "image/png".equals(mimeType) || "image/gif".equals(mimeType) || "image/bmp".equals(mimeType)
+                || "image/x-ms-bmp".equals(mimeType);
+    }
+
+    public static class Builder {
+        private OutputEncoder encoder;
+
+        public Builder() {
+            encoder = new OutputEncoder();
+        }
+
+        /**
+         * {@link Bitmap.CompressFormat#JPEG} or {@link Bitmap.CompressFormat#WEBP}. Default is JPEG
+         */
+        public Builder setFormat(Bitmap.CompressFormat format) {
+            encoder.format = format;
+            return this;
+        }
+
+        /**
+         * Quality from 0 to 100 for one output. Default is 100
+         *
+         * @param output one of {@link #OUTPUT_RESIZED}, {@link #OUTPUT_THUMBNAIL} or {@link #OUTPUT_THUMBNAIL_SMALL}
+         */
+        public Builder setQuality(int output, int quality) {
+            if (output < OUTPUT_RESIZED || output > OUTPUT_THUMBNAIL_SMALL) {
+                throw new IllegalArgumentException("Unknown output: " + output);
+            }
+            encoder.qualities[output] = Math.max(0, Math.min(100, quality));
+            return this;
+        }
+
+        /**
+         * Write the outputs of PNG, GIF and BMP images as PNG, so screenshots and graphics stay sharp and don't
+         * turn into large JPEGs. Default value is {@link Boolean#FALSE}
+         */
+        public Builder keepLosslessSources(boolean keep) {
+            encoder.keepLosslessSources = keep;
+            return this;
+        }
+
+        public OutputEncoder build() {
+            return encoder;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.hanihashemi.imagepicker.api;
+
+import com.hanihashemi.imagepicker.api.entity.ChosenImage;
+
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Handle for one pick, returned by <code>pickImage()</code>. It completes with the processed images, the same
+ * list the {@link com.hanihashemi.imagepicker.api.callbacks.ImagePickerCallback} gets.
+ * <p/>
+ * Cancel it when the result isn't needed anymore, e.g. when the user leaves the screen. Processing stops before the
+ * next image and inside running copies and decodes, the output files of the unfinished images are deleted and the
+ * callback isn't called anymore. The task is also cancelled when the user backs out of the picker.
+ */
+public interface PickerTask extends Future<List<ChosenImage>> {
+    /**
+     * Same as {@link #cancel(boolean)}. Work is stopped by checking the task, worker threads are never interrupted.
+     *
+     * @return false if the task was already done
+     */
+    boolean cancel();
+}
@@ -0,0 +1,32 @@
+package com.hanihashemi.imagepicker.api;
+
+/**
+ * Stages of processing a picked image, as reported to a
+ * {@link com.hanihashemi.imagepicker.api.callbacks.PickerMetricsListener}
+ */
+public interface PipelineStage {
+    /**
+     * Looking up a local path for a content:// uri
+     */
+    int RESOLVE = 1;
+    /**
+     * Copying the content of a content:// or http uri into the cache location
+     */
+    int IMPORT = 2;
+    /**
+     * Moving or copying the file into the cache location, including hashing it for deduplication
+     */
+    int COPY = 3;
+    /**
+     * Downscaling the image to the max size set with ensureMaxSize
+     */
+    int RESIZE = 4;
+    /**
+     * Reading the bounds and the EXIF data of the image
+     */
+    int METADATA = 5;
+    /**
+     * Generating one thumbnail. The first thumbnail includes decoding the image.
+     */
+    int THUMBNAIL = 6;
+}
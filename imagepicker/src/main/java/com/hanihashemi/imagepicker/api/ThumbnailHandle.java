@@ -0,0 +1,42 @@
+package com.hanihashemi.imagepicker.api;
+
+import com.hanihashemi.imagepicker.api.callbacks.ThumbnailCallback;
+import com.hanihashemi.imagepicker.api.exceptions.PickerException;
+
+/**
+ * Thumbnails of one picked image, see {@link com.hanihashemi.imagepicker.api.entity.ChosenImage#getThumbnails()}.
+ * <p/>
+ * When thumbnails are generated on demand, a size is only rendered the first time it is asked for, and the file is
+ * reused after that. Otherwise both sizes are already rendered when the image is delivered.
+ */
+public interface ThumbnailHandle {
+    /**
+     * The thumbnail, see {@link com.hanihashemi.imagepicker.api.entity.ChosenImage#getThumbnailPath()}
+     */
+    int SIZE_BIG = 1;
+    /**
+     * The small thumbnail, see {@link com.hanihashemi.imagepicker.api.entity.ChosenImage#getThumbnailSmallPath()}
+     */
+    int SIZE_SMALL = 2;
+
+    /**
+     * @param size {@link #SIZE_BIG} or {@link #SIZE_SMALL}
+     * @return path of the thumbnail if it is rendered already, otherwise null. Never blocks.
+     */
+    String peek(int size);
+
+    /**
+     * Render the thumbnail in the background if it isn't rendered yet. The callback is called on the UI thread.
+     *
+     * @param size {@link #SIZE_BIG} or {@link #SIZE_SMALL}
+     */
+    void get(int size, ThumbnailCallback callback);
+
+    /**
+     * Render the thumbnail on the calling thread if it isn't rendered yet. Never call it on the UI thread.
+     *
+     * @param size {@link #SIZE_BIG} or {@link #SIZE_SMALL}
+     * @return path of the thumbnail
+     */
+    String await(int size) throws PickerException;
+}
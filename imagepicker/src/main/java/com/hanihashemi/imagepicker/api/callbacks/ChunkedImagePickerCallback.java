@@ -0,0 +1,26 @@
+package com.hanihashemi.imagepicker.api.callbacks;
+
+import com.hanihashemi.imagepicker.api.entity.ChosenImage;
+
+import java.util.List;
+
+/**
+ * Opt-in callback for large batches, e.g. hundreds of images shared into the app. The picked images are created
+ * and processed a chunk at a time, the first chunk right away, and the next chunks only as the earlier ones are
+ * delivered, so the whole batch is never held in memory.
+ * <p/>
+ * {@link #onImagesChosen(List)} is called once per chunk, in the order the images were picked. Only the next chunk
+ * is processed while it runs, so a slow consumer holds the processing back instead of piling up chunks. The
+ * {@link com.hanihashemi.imagepicker.api.PickerTask} completes with an empty list.
+ * <p/>
+ * Batches which aren't processed in chunks, e.g. a single image to be cropped, get one
+ * {@link #onImagesChosen(List)} with all the images, followed by {@link #onAllImagesChosen(int)} all the same.
+ */
+public interface ChunkedImagePickerCallback extends ImagePickerCallback {
+    /**
+     * Called after the last chunk was delivered
+     *
+     * @param total number of picked images
+     */
+    void onAllImagesChosen(int total);
+}
@@ -0,0 +1,17 @@
+package com.hanihashemi.imagepicker.api.callbacks;
+
+import com.hanihashemi.imagepicker.api.entity.BatchMetrics;
+import com.hanihashemi.imagepicker.api.entity.StageMetrics;
+
+/**
+ * Receives timing and memory figures for every stage of processing the picked images, and a summary for the whole
+ * batch.
+ * <p/>
+ * Both methods are called on the worker threads, possibly in parallel for different images. Keep them short and
+ * don't touch the UI from them.
+ */
+public interface PickerMetricsListener {
+    void onStageCompleted(StageMetrics metrics);
+
+    void onBatchCompleted(BatchMetrics metrics);
+}
@@ -0,0 +1,18 @@
+package com.hanihashemi.imagepicker.api.callbacks;
+
+import com.hanihashemi.imagepicker.api.entity.ChosenImage;
+
+import java.util.List;
+
+/**
+ * Opt-in callback which delivers every image as soon as it has been processed. When the whole batch is done
+ * {@link #onImagesChosen(List)} is called with all images in the order they were picked.
+ */
+public interface StreamingImagePickerCallback extends ImagePickerCallback {
+    /**
+     * @param index position of the image in the picked batch
+     */
+    void onImageReady(int index, ChosenImage image);
+
+    void onProgress(int done, int total);
+}
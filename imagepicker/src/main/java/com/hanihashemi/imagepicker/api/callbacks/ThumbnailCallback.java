@@ -0,0 +1,15 @@
+package com.hanihashemi.imagepicker.api.callbacks;
+
+import com.hanihashemi.imagepicker.api.entity.ChosenImage;
+
+/**
+ * Receives a thumbnail requested with {@link com.hanihashemi.imagepicker.api.ThumbnailHandle#get(int,
+ * ThumbnailCallback)}, on the UI thread
+ */
+public interface ThumbnailCallback extends PickerCallback {
+    /**
+     * @param size {@link com.hanihashemi.imagepicker.api.ThumbnailHandle#SIZE_BIG} or
+     *             {@link com.hanihashemi.imagepicker.api.ThumbnailHandle#SIZE_SMALL}
+     */
+    void onThumbnailReady(ChosenImage image, int size, String path);
+}
@@ -0,0 +1,83 @@
+package com.hanihashemi.imagepicker.api.entity;
+
+import com.hanihashemi.imagepicker.api.PipelineStage;
+
+import java.util.Locale;
+
+/**
+ * Summary of processing one batch of picked images
+ */
+public class BatchMetrics {
+    private final static String STRING_FORMAT = "Images: %d, Succeeded: %d, Time: %d us, Read: %d, Written: %d, " +
+            "Bitmaps: %d, Peak: %d";
+    private final int imageCount;
+    private final int successCount;
+    private final long wallTimeNanos;
+    private final long bytesRead;
+    private final long bytesWritten;
+    private final long bitmapBytes;
+    private final long peakBitmapBytes;
+    private final long[] stageTimeNanos;
+
+    public BatchMetrics(int imageCount, int successCount, long wallTimeNanos, long bytesRead, long bytesWritten,
+                        long bitmapBytes, long peakBitmapBytes, long[] stageTimeNanos) {
+        this.imageCount = imageCount;
+        this.successCount = successCount;
+        this.wallTimeNanos = wallTimeNanos;
+        this.bytesRead = bytesRead;
+        this.bytesWritten = bytesWritten;
+        this.bitmapBytes = bitmapBytes;
+        this.peakBitmapBytes = peakBitmapBytes;
+        this.stageTimeNanos = stageTimeNanos;
+    }
+
+    public int getImageCount() {
+        return imageCount;
+    }
+
+    public int getSuccessCount() {
+        return successCount;
+    }
+
+    /**
+     * Time from the start of processing until the last image was done
+     */
+    public long getWallTimeNanos() {
+        return wallTimeNanos;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getBitmapBytes() {
+        return bitmapBytes;
+    }
+
+    /**
+     * Largest size of the bitmaps held at the same time by all the images processed in parallel
+     */
+    public long getPeakBitmapBytes() {
+        return peakBitmapBytes;
+    }
+
+    /**
+     * Time spent in a stage, summed over all the images. Images are processed in parallel, so the sum of all
+     * stages can be longer than {@link #getWallTimeNanos()}.
+     *
+     * @param stage one of {@link PipelineStage}
+     */
+    public long getStageTimeNanos(int stage) {
+        return stage >= 0 && stage < stageTimeNanos.length ? stageTimeNanos[stage] : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, STRING_FORMAT, imageCount, successCount, wallTimeNanos / 1000, bytesRead,
+                bytesWritten, bitmapBytes, peakBitmapBytes);
+    }
+}
@@ -4,6 +4,8 @@ import android.media.ExifInterface;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import com.hanihashemi.imagepicker.api.ThumbnailHandle;
+
 import java.util.Date;
 import java.util.Locale;
 import java.util.concurrent.TimeUnit;
@@ -43,6 +45,9 @@ public class ChosenImage implements Parcelable {
     private int height;
     private float lat;
     private float lng;
+    private String digest;
+    // Not parcelled, it renders with the thread that processed the image
+    private transient ThumbnailHandle thumbnails;
 
     public ChosenImage() {
 
@@ -69,6 +74,7 @@ public class ChosenImage implements Parcelable {
         this.height = in.readInt();
         this.lat = in.readFloat();
         this.lng = in.readFloat();
+        this.digest = in.readString();
     }
 
     public float getLat() {
@@ -310,6 +316,32 @@ public class ChosenImage implements Parcelable {
                 TimeUnit.MILLISECONDS.toSeconds(duration) - TimeUnit.MINUTES.toSeconds(TimeUnit.MILLISECONDS.toMinutes(duration)));
     }
 
+    /**
+     * SHA-256 of the imported file as hex, computed while it was copied. Only available when deduplication of
+     * imports is enabled.
+     *
+     * @return
+     */
+    public String getDigest() {
+        return digest;
+    }
+
+    public void setDigest(String digest) {
+        this.digest = digest;
+    }
+
+    /**
+     * Thumbnails of the image, which may be rendered on demand. Null when thumbnails are disabled, and after the
+     * image went through a {@link Parcel}.
+     */
+    public ThumbnailHandle getThumbnails() {
+        return thumbnails;
+    }
+
+    public void setThumbnails(ThumbnailHandle thumbnails) {
+        this.thumbnails = thumbnails;
+    }
+
     public String getTempFile() {
         return tempFile;
     }
@@ -383,5 +415,6 @@ public class ChosenImage implements Parcelable {
         dest.writeInt(this.height);
         dest.writeFloat(this.lat);
         dest.writeFloat(this.lng);
+        dest.writeString(this.digest);
     }
 }
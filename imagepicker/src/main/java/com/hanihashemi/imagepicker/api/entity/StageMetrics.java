@@ -0,0 +1,92 @@
+package com.hanihashemi.imagepicker.api.entity;
+
+import com.hanihashemi.imagepicker.api.PipelineStage;
+
+import java.util.Locale;
+
+/**
+ * Figures for one {@link PipelineStage} of one image
+ */
+public class StageMetrics {
+    private final static String STRING_FORMAT = "Image: %d, Stage: %d, Scale: %d, Time: %d us, Read: %d, Written: %d, " +
+            "Bitmaps: %d, Peak: %d";
+    private final int index;
+    private final ChosenImage image;
+    private final int stage;
+    private final int scale;
+    private final long wallTimeNanos;
+    private final long bytesRead;
+    private final long bytesWritten;
+    private final long bitmapBytes;
+    private final long peakBitmapBytes;
+
+    public StageMetrics(int index, ChosenImage image, int stage, int scale, long wallTimeNanos, long bytesRead,
+                        long bytesWritten, long bitmapBytes, long peakBitmapBytes) {
+        this.index = index;
+        this.image = image;
+        this.stage = stage;
+        this.scale = scale;
+        this.wallTimeNanos = wallTimeNanos;
+        this.bytesRead = bytesRead;
+        this.bytesWritten = bytesWritten;
+        this.bitmapBytes = bitmapBytes;
+        this.peakBitmapBytes = peakBitmapBytes;
+    }
+
+    /**
+     * Position of the image in the picked batch
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public ChosenImage getImage() {
+        return image;
+    }
+
+    /**
+     * One of {@link PipelineStage}
+     */
+    public int getStage() {
+        return stage;
+    }
+
+    /**
+     * Scale of the thumbnail for {@link PipelineStage#THUMBNAIL}, 0 for the other stages
+     */
+    public int getScale() {
+        return scale;
+    }
+
+    public long getWallTimeNanos() {
+        return wallTimeNanos;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Size of all the bitmaps decoded or created in this stage
+     */
+    public long getBitmapBytes() {
+        return bitmapBytes;
+    }
+
+    /**
+     * Largest size of the bitmaps this stage held at the same time
+     */
+    public long getPeakBitmapBytes() {
+        return peakBitmapBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, STRING_FORMAT, index, stage, scale, wallTimeNanos / 1000, bytesRead,
+                bytesWritten, bitmapBytes, peakBitmapBytes);
+    }
+}
@@ -16,11 +16,18 @@ import android.support.v4.content.FileProvider;
 
 import com.hanihashemi.imagepicker.api.CameraImagePicker;
 import com.hanihashemi.imagepicker.api.ImagePicker;
+import com.hanihashemi.imagepicker.api.OutputEncoder;
 import com.hanihashemi.imagepicker.api.Picker;
+import com.hanihashemi.imagepicker.api.PickerTask;
+import com.hanihashemi.imagepicker.api.callbacks.ChunkedImagePickerCallback;
 import com.hanihashemi.imagepicker.api.callbacks.ImagePickerCallback;
+import com.hanihashemi.imagepicker.api.callbacks.PickerMetricsListener;
 import com.hanihashemi.imagepicker.api.entity.ChosenImage;
 import com.hanihashemi.imagepicker.api.exceptions.PickerException;
+import com.hanihashemi.imagepicker.core.threads.FileProcessorThread;
 import com.hanihashemi.imagepicker.core.threads.ImageProcessorThread;
+import com.hanihashemi.imagepicker.core.threads.OwnedFiles;
+import com.hanihashemi.imagepicker.core.threads.PickerTaskImpl;
 import com.hanihashemi.imagepicker.utils.Logger;
 import com.karumi.dexter.Dexter;
 import com.karumi.dexter.MultiplePermissionsReport;
@@ -32,6 +39,7 @@ import com.yalantis.ucrop.UCrop;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import static android.app.Activity.RESULT_OK;
 
@@ -41,14 +49,26 @@ import static android.app.Activity.RESULT_OK;
  */
 public abstract class PickerImpl extends PickerManager {
     private final static String TAG = PickerImpl.class.getSimpleName();
+    private final static int DEFAULT_CHUNK_SIZE = 32;
     private ImagePickerCallback callback;
     private boolean generateThumbnails = true;
+    private boolean generateThumbnailsOnDemand = false;
+    private boolean cacheThumbnails = false;
+    private boolean deduplicate = false;
     private boolean generateMetadata = true;
     private int maxWidth = -1;
     private int maxHeight = -1;
     private String cameraFilePath;
     private boolean crop = false;
     private UCrop.Options options;
+    private Executor executor;
+    private PickerMetricsListener metricsListener;
+    private PickerTaskImpl task;
+    private OutputEncoder encoder;
+    private long httpCacheSize;
+    private long maxDecodeBytes;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private boolean resumeInterruptedBatches = false;
 
     /**
      * UCrop options
@@ -91,6 +111,30 @@ public abstract class PickerImpl extends PickerManager {
         this.generateThumbnails = generateThumbnails;
     }
 
+    /**
+     * Deliver the images right after they are imported, and render every thumbnail the first time it is asked
+     * for through {@link ChosenImage#getThumbnails()}. Default value is {@link Boolean#FALSE}
+     */
+    public void shouldGenerateThumbnailsOnDemand(boolean generateThumbnailsOnDemand) {
+        this.generateThumbnailsOnDemand = generateThumbnailsOnDemand;
+    }
+
+    /**
+     * Reuse the thumbnails generated for the same image content in an earlier pick. Default value is
+     * {@link Boolean#FALSE}
+     */
+    public void shouldCacheThumbnails(boolean cacheThumbnails) {
+        this.cacheThumbnails = cacheThumbnails;
+    }
+
+    /**
+     * Hash the imported files and reuse an earlier import with the same content instead of storing another copy.
+     * Default value is {@link Boolean#FALSE}
+     */
+    public void shouldDeduplicate(boolean deduplicate) {
+        this.deduplicate = deduplicate;
+    }
+
     /**
      * Enable generation of metadata for the image. Default value is {@link Boolean#FALSE}
      */
@@ -98,6 +142,88 @@ public abstract class PickerImpl extends PickerManager {
         this.generateMetadata = generateMetadata;
     }
 
+    /**
+     * Executor on which the picked images are processed. By default a shared pool, sized by the number of cores
+     * and the type of the cache location, is used.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Format and quality of the resized images and the thumbnails. Default is {@link OutputEncoder#DEFAULT}
+     */
+    public void setOutputEncoder(OutputEncoder encoder) {
+        this.encoder = encoder;
+    }
+
+    /**
+     * Keep up to the given number of bytes of downloaded images, and only download them again when the server has
+     * a newer version. Default is 0, every image is downloaded
+     */
+    public void setHttpCacheSize(long bytes) {
+        this.httpCacheSize = bytes;
+    }
+
+    /**
+     * Largest bitmap an image is decoded to at once. Larger images are decoded in bands. Default is 0, an eighth
+     * of the heap
+     */
+    public void setMaxDecodeBytes(long bytes) {
+        this.maxDecodeBytes = bytes;
+    }
+
+    /**
+     * Number of images per chunk for a {@link ChunkedImagePickerCallback}. Default is 32
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize > 0) {
+            this.chunkSize = chunkSize;
+        }
+    }
+
+    /**
+     * Journal the progress of every batch, so a batch interrupted by the app being killed can be resumed with
+     * {@link #resumeInterruptedBatch()}, or by picking the same images again. Default is false
+     */
+    public void shouldResumeInterruptedBatches(boolean resumeInterruptedBatches) {
+        this.resumeInterruptedBatches = resumeInterruptedBatches;
+    }
+
+    /**
+     * Process the last batch that was interrupted by the app being killed, reusing the imports, resized images and
+     * thumbnails that were already written. The images are delivered to the callback like those of a new pick. The
+     * batch is resumed even if {@link #shouldResumeInterruptedBatches(boolean)} was turned off since.
+     *
+     * @return the task of the resumed batch, or null if there is nothing to resume
+     */
+    public PickerTask resumeInterruptedBatch() {
+        List<String> uris;
+        try {
+            uris = FileProcessorThread.findInterruptedBatch(getActivity(), cacheLocation);
+        } catch (PickerException e) {
+            e.printStackTrace();
+            return null;
+        }
+        if (uris == null) {
+            return null;
+        }
+        if (task != null) {
+            task.cancel();
+        }
+        task = new PickerTaskImpl();
+        // Journaled even with resuming off, so the batch picks up its progress and its journal is deleted once done
+        processImages(uris, false, true);
+        return task;
+    }
+
+    /**
+     * Listener for the timing and memory figures of every processing stage of the picked images
+     */
+    public void setMetricsListener(PickerMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
     public void setImagePickerCallback(ImagePickerCallback callback) {
         this.callback = callback;
     }
@@ -114,7 +240,12 @@ public abstract class PickerImpl extends PickerManager {
     }
 
     @Override
-    public void pickImage() {
+    public PickerTask pickImage() {
+        if (task != null) {
+            // A new pick replaces the one that is still running
+            task.cancel();
+        }
+        task = new PickerTaskImpl();
         try {
             if (callback == null) {
                 throw new PickerException("ImagePickerCallback is null!!! Please set one.");
@@ -126,10 +257,12 @@ public abstract class PickerImpl extends PickerManager {
             }
         } catch (PickerException e) {
             e.printStackTrace();
+            task.fail(e);
             if (callback != null) {
                 callback.onError(e.getMessage());
             }
         }
+        return task;
     }
 
     private String pickLocalImage() {
@@ -177,6 +310,7 @@ public abstract class PickerImpl extends PickerManager {
             uri = Uri.fromFile(new File(tempFilePath));
         }
         cameraFilePath = tempFilePath;
+        OwnedFiles.register(tempFilePath);
 
         final Intent intent = new Intent(MediaStore.ACTION_IMAGE_CAPTURE);
         intent.putExtra(MediaStore.EXTRA_OUTPUT, uri);
@@ -234,6 +368,9 @@ public abstract class PickerImpl extends PickerManager {
             handleGalleryData(data);
         } else if (resultCode == RESULT_OK && requestCode == Picker.PICK_IMAGE_CAMERA) {
             handleCameraData(cameraFilePath);
+        } else if (task != null && (requestCode == Picker.PICK_IMAGE_DEVICE || requestCode == Picker.PICK_IMAGE_CAMERA)) {
+            // The user backed out of the picker
+            task.cancel();
         }
     }
 
@@ -245,6 +382,8 @@ public abstract class PickerImpl extends PickerManager {
             processImages(uris, false);
         } else if (resultCode == UCrop.RESULT_ERROR) {
             throw new RuntimeException(UCrop.getError(data));
+        } else if (task != null) {
+            task.cancel();
         }
     }
 
@@ -289,26 +428,42 @@ public abstract class PickerImpl extends PickerManager {
     }
 
     private void processImages(List<String> uris, boolean shouldCrop) {
-        ImageProcessorThread thread = new ImageProcessorThread(getActivity(), getImageObjects(uris), cacheLocation);
+        processImages(uris, shouldCrop, resumeInterruptedBatches);
+    }
+
+    private void processImages(List<String> uris, boolean shouldCrop, boolean resume) {
+        ImageProcessorThread thread;
+        if (callback instanceof ChunkedImagePickerCallback && !shouldCrop) {
+            // The images are only created as their chunk comes up
+            thread = new ImageProcessorThread(getActivity(), uris, chunkSize, cacheLocation);
+        } else {
+            thread = new ImageProcessorThread(getActivity(), getImageObjects(uris), cacheLocation);
+        }
         if (maxWidth != -1 && maxHeight != -1) {
             thread.setOutputImageDimensions(maxWidth, maxHeight);
         }
         thread.setShouldGenerateThumbnails(generateThumbnails);
+        thread.setShouldGenerateThumbnailsOnDemand(generateThumbnailsOnDemand);
+        thread.setShouldCacheThumbnails(cacheThumbnails);
+        thread.setShouldDeduplicate(deduplicate);
         thread.setShouldGenerateMetadata(generateMetadata);
         thread.setImagePickerCallback(callback);
         thread.setUCropOptions(options);
         thread.setShouldCrop(shouldCrop);
+        thread.setExecutor(executor);
+        thread.setMetricsListener(metricsListener);
+        thread.setTask(task);
+        thread.setOutputEncoder(encoder);
+        thread.setHttpCacheSize(httpCacheSize);
+        thread.setMaxDecodeBytes(maxDecodeBytes);
+        thread.setShouldResumeInterruptedBatches(resume);
         thread.start();
     }
 
     private List<ChosenImage> getImageObjects(List<String> uris) {
         List<ChosenImage> images = new ArrayList<>();
         for (String uri : uris) {
-            ChosenImage image = new ChosenImage();
-            image.setQueryUri(uri);
-            image.setDirectoryType(Environment.DIRECTORY_PICTURES);
-            image.setType("image");
-            images.add(image);
+            images.add(ImageProcessorThread.newImage(uri));
         }
         return images;
     }
@@ -9,6 +9,7 @@ import android.os.Environment;
 import android.support.v4.app.Fragment;
 
 import com.hanihashemi.imagepicker.api.CacheLocation;
+import com.hanihashemi.imagepicker.api.PickerTask;
 import com.hanihashemi.imagepicker.api.exceptions.PickerException;
 import com.hanihashemi.imagepicker.utils.FileUtils;
 
@@ -52,8 +53,10 @@ public abstract class PickerManager {
 
     /**
      * Triggers pick image
+     *
+     * @return handle for the result, which can be cancelled when the images aren't needed anymore
      */
-    public abstract void pickImage();
+    public abstract PickerTask pickImage();
 
     /**
      * This method should be called after {@link Activity#onActivityResult(int, int, Intent)} is  called.
@@ -0,0 +1,119 @@
+package com.hanihashemi.imagepicker.core.cache;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.hanihashemi.imagepicker.utils.StreamHelper.closeSilent;
+
+/**
+ * Maps content digests to files already imported into a cache directory, so the same content picked from
+ * another provider reuses the existing file instead of storing another copy.
+ * <p/>
+ * The index is an append-only text file in the directory, loaded on first use. An entry is only trusted while
+ * the file still has the size and modification time it had when it was indexed.
+ */
+public final class DigestIndex {
+    private final static String INDEX_FILE_NAME = ".digest-index";
+    private final static Map<String, DigestIndex> instances = new HashMap<>();
+
+    private final File indexFile;
+    private Map<String, Entry> entries;
+
+    private DigestIndex(File directory) {
+        this.indexFile = new File(directory, INDEX_FILE_NAME);
+    }
+
+    public static synchronized DigestIndex getInstance(File directory) {
+        String key = directory.getAbsolutePath();
+        DigestIndex index = instances.get(key);
+        if (index == null) {
+            index = new DigestIndex(directory);
+            instances.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * @return path of an indexed file with this digest, or null if there is none
+     */
+    public synchronized String find(String digest) {
+        Entry entry = getEntries().get(digest);
+        if (entry == null) {
+            return null;
+        }
+        File file = new File(entry.path);
+        if (!file.isFile() || file.length() != entry.length || file.lastModified() != entry.lastModified) {
+            entries.remove(digest);
+            return null;
+        }
+        return entry.path;
+    }
+
+    public synchronized void put(String digest, File file) {
+        Entry entry = new Entry(file.getAbsolutePath(), file.length(), file.lastModified());
+        getEntries().put(digest, entry);
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(indexFile, true), "UTF-8");
+            writer.write(digest + "\t" + entry.length + "\t" + entry.lastModified + "\t" + entry.path + "\n");
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            closeSilent(writer);
+        }
+    }
+
+    private Map<String, Entry> getEntries() {
+        if (entries == null) {
+            entries = new HashMap<>();
+            load();
+        }
+        return entries;
+    }
+
+    private void load() {
+        if (!indexFile.isFile()) {
+            return;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", 4);
+                if (parts.length != 4) {
+                    continue;
+                }
+                try {
+                    entries.put(parts[0], new Entry(parts[3], Long.parseLong(parts[1]), Long.parseLong(parts[2])));
+                } catch (NumberFormatException e) {
+                    // A partly written line from a killed process
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            closeSilent(reader);
+        }
+    }
+
+    private static final class Entry {
+        final String path;
+        final long length;
+        final long lastModified;
+
+        Entry(String path, long length, long lastModified) {
+            this.path = path;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+}
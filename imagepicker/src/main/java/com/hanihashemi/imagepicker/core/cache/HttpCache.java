@@ -0,0 +1,463 @@
+package com.hanihashemi.imagepicker.core.cache;
+
+import com.hanihashemi.imagepicker.utils.CancellationToken;
+import com.hanihashemi.imagepicker.utils.FileUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hanihashemi.imagepicker.utils.StreamHelper.closeSilent;
+
+/**
+ * On-disk cache of downloaded images, with the validators needed to revalidate them.
+ * <p/>
+ * Every entry is a body file named after a hash of its URL, and a small <code>.meta</code> file with the ETag,
+ * Last-Modified, Content-Type and expiry of the response. The least recently used entries are evicted once the
+ * bodies grow over the maximum size. The modification time of the meta file records when an entry was last used,
+ * so the order survives the process.
+ * <p/>
+ * Bodies are copied both when a response is stored and when it is reused, so no delivered file ever shares its
+ * content with an entry, and changes the app makes to a delivered image never reach the cache. The copies are
+ * made outside the lock of the cache. A body is never written in place, a newer response replaces it with a
+ * rename.
+ */
+public final class HttpCache {
+    private final static String META_SUFFIX = ".meta";
+    private final static String TEMP_SUFFIX = ".tmp";
+    private final static long DEFAULT_MAX_SIZE = 32 * 1024 * 1024;
+    private final static Map<String, HttpCache> instances = new HashMap<>();
+
+    private final File directory;
+    private long maxSize = DEFAULT_MAX_SIZE;
+    private long size;
+    // In access order, least recently used first
+    private LinkedHashMap<String, Entry> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private HttpCache(File directory) {
+        this.directory = directory;
+    }
+
+    public static synchronized HttpCache getInstance(File directory) {
+        String key = directory.getAbsolutePath();
+        HttpCache cache = instances.get(key);
+        if (cache == null) {
+            cache = new HttpCache(directory);
+            instances.put(key, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Largest total size of the cached bodies. Entries are evicted right away if the cache is larger.
+     */
+    public synchronized void setMaxSize(long bytes) {
+        maxSize = Math.max(0, bytes);
+        trimToSize(maxSize);
+    }
+
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Total size of the cached bodies
+     */
+    public synchronized long getSize() {
+        getEntries();
+        return size;
+    }
+
+    /**
+     * @return the cached response for the URL, or null if there is none
+     */
+    public synchronized Entry get(String url) {
+        String key = getKey(url);
+        Entry entry = getEntries().get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (!entry.url.equals(url) || entry.body.length() != entry.length) {
+            remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Copy the cached body of an entry at the destination, which is overwritten. Counted as a hit, or as a
+     * revalidation when the server had to confirm the entry first.
+     *
+     * @param revalidated  whether the server answered <code>304 Not Modified</code> for the entry
+     * @param cacheControl Cache-Control of the <code>304</code> response, renews the expiry of the entry. May be
+     *                     null.
+     * @param cancellation may be null
+     * @return false if the entry was evicted since it was looked up
+     */
+    public boolean reuse(Entry entry, File destination, boolean revalidated, String cacheControl,
+                         CancellationToken cancellation) throws IOException {
+        FileInputStream input;
+        synchronized (this) {
+            if (getEntries().get(entry.body.getName()) != entry) {
+                return false;
+            }
+            // Keeps the body readable once the lock is released, even if the entry is evicted or replaced
+            input = new FileInputStream(entry.body);
+        }
+        // Copied outside the lock, so the other downloads of the batch aren't held up by a large body
+        try {
+            FileOutputStream output = new FileOutputStream(destination);
+            try {
+                FileUtils.copyLarge(input, output, cancellation != null ? cancellation : CancellationToken.NONE);
+            } finally {
+                output.close();
+            }
+        } finally {
+            input.close();
+        }
+        if (destination.length() != entry.length) {
+            throw new IOException("Failed to copy full contents from '" + entry.body + "' to '" +
+                    destination + "'");
+        }
+        //noinspection ResultOfMethodCallIgnored
+        destination.setLastModified(entry.body.lastModified());
+        synchronized (this) {
+            if (revalidated) {
+                revalidations.incrementAndGet();
+            } else {
+                hits.incrementAndGet();
+            }
+            if (getEntries().get(entry.body.getName()) != entry) {
+                return true;
+            }
+            if (revalidated && cacheControl != null) {
+                entry.expires = getExpiry(cacheControl, System.currentTimeMillis());
+                writeMeta(entry);
+            }
+            //noinspection ResultOfMethodCallIgnored
+            entry.meta.setLastModified(System.currentTimeMillis());
+        }
+        return true;
+    }
+
+    /**
+     * Store a downloaded response, replacing the entry of the URL. Counted as a miss. Responses with
+     * <code>Cache-Control: no-store</code> and bodies larger than the cache are not stored.
+     *
+     * @param etag         may be null
+     * @param lastModified may be null
+     * @param contentType  may be null
+     * @param cacheControl may be null
+     */
+    public void put(String url, File body, String etag, String lastModified, String contentType,
+                    String cacheControl) {
+        misses.incrementAndGet();
+        String key = getKey(url);
+        synchronized (this) {
+            remove(key);
+            if (cacheControl != null && cacheControl.toLowerCase().contains("no-store")) {
+                return;
+            }
+            if ((etag == null && lastModified == null) || body.length() > maxSize) {
+                return;
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        directory.mkdirs();
+        // Unique, parallel downloads of the same URL may store it at the same time
+        File temp = new File(directory, key + "-" + UUID.randomUUID() + TEMP_SUFFIX);
+        try {
+            FileUtils.copyFile(body, temp);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            return;
+        }
+        Entry entry = new Entry(url, new File(directory, key), new File(directory, key + META_SUFFIX), etag,
+                lastModified, contentType, getExpiry(cacheControl, System.currentTimeMillis()), temp.length());
+        synchronized (this) {
+            // Replaces whatever was stored for the URL while the body was copied
+            remove(key);
+            try {
+                if (!temp.renameTo(entry.body)) {
+                    throw new IOException("Couldn't rename " + temp + " to " + entry.body);
+                }
+                writeMeta(entry);
+            } catch (IOException e) {
+                e.printStackTrace();
+                //noinspection ResultOfMethodCallIgnored
+                temp.delete();
+                //noinspection ResultOfMethodCallIgnored
+                entry.body.delete();
+                return;
+            }
+            entries.put(key, entry);
+            size += entry.length;
+            trimToSize(maxSize);
+        }
+    }
+
+    /**
+     * Drop all entries, keeping the counters
+     */
+    public synchronized void clear() {
+        for (String key : new ArrayList<>(getEntries().keySet())) {
+            remove(key);
+        }
+    }
+
+    /**
+     * Responses reused without a request, because they hadn't expired
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Responses reused after the server confirmed with <code>304 Not Modified</code> that they are current
+     */
+    public long getRevalidationCount() {
+        return revalidations.get();
+    }
+
+    /**
+     * Responses which had to be downloaded, because there was no entry or the server had a newer one
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public void resetCounters() {
+        hits.set(0);
+        revalidations.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    private void trimToSize(long maxSize) {
+        Iterator<Map.Entry<String, Entry>> iterator = getEntries().entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Entry entry = iterator.next().getValue();
+            iterator.remove();
+            delete(entry);
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = getEntries().remove(key);
+        if (entry != null) {
+            delete(entry);
+        }
+    }
+
+    private void delete(Entry entry) {
+        size -= entry.length;
+        //noinspection ResultOfMethodCallIgnored
+        entry.body.delete();
+        //noinspection ResultOfMethodCallIgnored
+        entry.meta.delete();
+    }
+
+    private Map<String, Entry> getEntries() {
+        if (entries == null) {
+            entries = new LinkedHashMap<>(16, 0.75f, true);
+            load();
+        }
+        return entries;
+    }
+
+    private void load() {
+        File[] listed = directory.listFiles();
+        if (listed == null) {
+            return;
+        }
+        final Map<File, Long> used = new HashMap<>();
+        List<File> files = new ArrayList<>();
+        for (File file : listed) {
+            if (file.getName().endsWith(META_SUFFIX)) {
+                used.put(file, file.lastModified());
+                files.add(file);
+            } else if (file.getName().endsWith(TEMP_SUFFIX)) {
+                // Left behind by a killed process
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+            }
+        }
+        File[] sorted = files.toArray(new File[files.size()]);
+        Arrays.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long difference = used.get(first) - used.get(second);
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        for (File meta : sorted) {
+            String name = meta.getName();
+            String key = name.substring(0, name.length() - META_SUFFIX.length());
+            Entry entry = readMeta(new File(directory, key), meta);
+            if (entry == null) {
+                //noinspection ResultOfMethodCallIgnored
+                meta.delete();
+                //noinspection ResultOfMethodCallIgnored
+                new File(directory, key).delete();
+                continue;
+            }
+            entries.put(key, entry);
+            size += entry.length;
+        }
+    }
+
+    private static Entry readMeta(File body, File meta) {
+        if (!body.isFile()) {
+            return null;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(meta), "UTF-8"));
+            String line = reader.readLine();
+            String[] parts = line != null ? line.split("\t", -1) : new String[0];
+            if (parts.length != 5) {
+                return null;
+            }
+            return new Entry(parts[0], body, meta, emptyToNull(parts[1]), emptyToNull(parts[2]),
+                    emptyToNull(parts[3]), Long.parseLong(parts[4]), body.length());
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        } finally {
+            closeSilent(reader);
+        }
+    }
+
+    private static void writeMeta(Entry entry) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(entry.meta), "UTF-8");
+        try {
+            writer.write(clean(entry.url) + "\t" + clean(entry.etag) + "\t" + clean(entry.lastModified) + "\t"
+                    + clean(entry.contentType) + "\t" + entry.expires + "\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String clean(String value) {
+        return value == null ? "" : value.replace('\t', ' ').replace('\n', ' ');
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    private static String getKey(String url) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return FileUtils.toHex(digest.digest(url.getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Time until which a response may be reused without revalidation, from the <code>max-age</code> of its
+     * Cache-Control. Responses without one expire right away, and are revalidated on every use.
+     */
+    static long getExpiry(String cacheControl, long now) {
+        if (cacheControl == null) {
+            return 0;
+        }
+        for (String directive : cacheControl.toLowerCase().split(",")) {
+            directive = directive.trim();
+            if (directive.equals("no-cache")) {
+                return 0;
+            }
+            if (directive.startsWith("max-age=")) {
+                try {
+                    return now + Long.parseLong(directive.substring("max-age=".length()).trim()) * 1000;
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * A cached response
+     */
+    public static final class Entry {
+        private final String url;
+        private final File body;
+        private final File meta;
+        private final String etag;
+        private final String lastModified;
+        private final String contentType;
+        private final long length;
+        private volatile long expires;
+
+        private Entry(String url, File body, File meta, String etag, String lastModified, String contentType,
+                      long expires, long length) {
+            this.url = url;
+            this.body = body;
+            this.meta = meta;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.contentType = contentType;
+            this.expires = expires;
+            this.length = length;
+        }
+
+        /**
+         * For <code>If-None-Match</code>, may be null
+         */
+        public String getETag() {
+            return etag;
+        }
+
+        /**
+         * For <code>If-Modified-Since</code>, may be null
+         */
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * Whether the entry may still be reused without asking the server
+         */
+        public boolean isFresh() {
+            return System.currentTimeMillis() < expires;
+        }
+    }
+}
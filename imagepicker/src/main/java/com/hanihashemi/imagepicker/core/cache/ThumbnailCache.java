@@ -0,0 +1,86 @@
+package com.hanihashemi.imagepicker.core.cache;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content addressed store for generated thumbnails.
+ * <p/>
+ * Thumbnails are named after a fingerprint of the image they were made from and the thumbnail spec, so picking
+ * the same photo again finds the thumbnails of the previous pick instead of decoding and encoding them again.
+ */
+public final class ThumbnailCache {
+    /**
+     * Bumped whenever the way thumbnails are rendered changes, so old entries are not reused
+     */
+    private final static int SPEC_VERSION = 3;
+    private final static ThumbnailCache INSTANCE = new ThumbnailCache();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private ThumbnailCache() {
+    }
+
+    public static ThumbnailCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Look up the thumbnails for all the scales.
+     *
+     * @param specs how the thumbnail of every scale is encoded, see
+     *              {@link com.hanihashemi.imagepicker.api.OutputEncoder#getSpec(int, String)}
+     * @return paths of the cached thumbnails, or null if any of them is missing
+     */
+    public String[] get(File directory, String fingerprint, int[] scales, String[] specs) {
+        String[] paths = new String[scales.length];
+        for (int i = 0; i < scales.length; i++) {
+            File file = getFile(directory, fingerprint, scales[i], specs[i]);
+            if (!file.isFile() || file.length() == 0) {
+                misses.incrementAndGet();
+                return null;
+            }
+            paths[i] = file.getAbsolutePath();
+        }
+        hits.incrementAndGet();
+        return paths;
+    }
+
+    /**
+     * Files the thumbnails for the scales should be written to
+     */
+    public File[] getFiles(File directory, String fingerprint, int[] scales, String[] specs) {
+        //noinspection ResultOfMethodCallIgnored
+        directory.mkdirs();
+        File[] files = new File[scales.length];
+        for (int i = 0; i < scales.length; i++) {
+            files[i] = getFile(directory, fingerprint, scales[i], specs[i]);
+        }
+        return files;
+    }
+
+    // The spec ends with the extension of the format, e.g. q80.webp
+    private File getFile(File directory, String fingerprint, int scale, String spec) {
+        return new File(directory, fingerprint + "-v" + SPEC_VERSION + "-scale-" + scale + "-" + spec);
+    }
+
+    /**
+     * Number of images whose thumbnails were all found in the cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Number of images whose thumbnails had to be generated
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public void resetCounters() {
+        hits.set(0);
+        misses.set(0);
+    }
+}
@@ -0,0 +1,706 @@
+package com.hanihashemi.imagepicker.core.net;
+
+import com.hanihashemi.imagepicker.core.cache.HttpCache;
+import com.hanihashemi.imagepicker.utils.BufferPool;
+import com.hanihashemi.imagepicker.utils.CancellationToken;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads http(s) URLs to files.
+ * <p/>
+ * Every connection has a connect and a read timeout. When the server supports ranges and the file is large
+ * enough, it is split into HTTP Range segments which are downloaded in parallel. A download that fails with an
+ * I/O error is resumed from its last byte, as long as the server has a validator (ETag or Last-Modified) to
+ * prove it still serves the same file. Without a validator, or when the file changed on the server, the download
+ * starts over.
+ * <p/>
+ * One downloader is meant to be shared by a batch: it caps the number of connections the batch has open at the
+ * same time. Responses that are read to their end are closed without disconnecting, so the connection goes back
+ * to the keep-alive pool of {@link HttpURLConnection} and is reused by the next request to the same host.
+ * <p/>
+ * Downloads can go through an {@link HttpCache}, which is revalidated with <code>If-None-Match</code> and
+ * <code>If-Modified-Since</code>.
+ */
+public final class HttpDownloader {
+    private final static int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15000;
+    private final static int DEFAULT_READ_TIMEOUT_MILLIS = 30000;
+    private final static int DEFAULT_MAX_RETRIES = 3;
+    private final static long DEFAULT_RETRY_DELAY_MILLIS = 500;
+    private final static int DEFAULT_MAX_CONNECTIONS = 4;
+    private final static int DEFAULT_MAX_SEGMENTS = 4;
+    private final static long DEFAULT_MIN_SEGMENT_BYTES = 1024 * 1024;
+    private final static int KEEP_ALIVE_SECONDS = 30;
+    private final static long PERMIT_POLL_MILLIS = 100;
+
+    private int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+    private int readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+    private long retryDelayMillis = DEFAULT_RETRY_DELAY_MILLIS;
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private int maxSegments = DEFAULT_MAX_SEGMENTS;
+    private long minSegmentBytes = DEFAULT_MIN_SEGMENT_BYTES;
+    private Semaphore connections;
+    private ThreadPoolExecutor segmentExecutor;
+
+    private HttpDownloader() {
+    }
+
+    /**
+     * Download the URL to the destination file, which is overwritten.
+     *
+     * @param cancellation may be null. Once it is cancelled the download stops with an
+     *                     {@link InterruptedIOException}, and the destination is left incomplete.
+     * @throws HttpStatusException if the server answers with an error status
+     */
+    public Result download(String url, File destination, CancellationToken cancellation) throws IOException {
+        return download(url, destination, null, cancellation);
+    }
+
+    /**
+     * Download the URL to the destination file through a cache. A fresh cached response is reused without a
+     * request, any other cached response is revalidated with a conditional request.
+     *
+     * @param cache may be null
+     */
+    public Result download(String url, File destination, HttpCache cache, CancellationToken cancellation)
+            throws IOException {
+        Download download = new Download(new URL(url), destination,
+                cancellation != null ? cancellation : CancellationToken.NONE);
+        if (cache != null) {
+            download.cached = cache.get(url);
+            if (download.cached != null && download.cached.isFresh()
+                    && cache.reuse(download.cached, destination, false, null, download.cancellation)) {
+                return new Result(download.cached.getContentType(), 0, 0, 0, true);
+            }
+        }
+        acquireConnection(download);
+        Result result;
+        try {
+            result = download(download, cache);
+        } finally {
+            connections.release();
+        }
+        if (cache != null && !result.isFromCache()) {
+            cache.put(url, destination, download.etag, download.lastModified, download.contentType,
+                    download.cacheControl);
+        }
+        return result;
+    }
+
+    private Result download(Download download, HttpCache cache) throws IOException {
+        Response probe = null;
+        // The probe answers whether ranges are supported, and is the first segment
+        Segment first = new Segment(0, -1);
+        int attempt = 0;
+        while (probe == null) {
+            try {
+                probe = open(download, first);
+            } catch (IOException e) {
+                attempt = onFailure(download, e, attempt);
+                continue;
+            }
+            if (probe.notModified) {
+                if (cache.reuse(download.cached, download.destination, true,
+                        probe.connection.getHeaderField("Cache-Control"), download.cancellation)) {
+                    return new Result(download.cached.getContentType(), 0, 0, download.retries.get(), true);
+                }
+                // Evicted since it was looked up, download it after all
+                download.cached = null;
+                probe = null;
+            }
+        }
+        first.end = download.length;
+
+        // Sized before any extra connection is taken, a failure here only has the probe to give back
+        try {
+            RandomAccessFile file = new RandomAccessFile(download.destination, "rw");
+            try {
+                file.setLength(download.length >= 0 ? download.length : 0);
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            probe.connection.disconnect();
+            throw e;
+        }
+
+        List<Segment> segments = new ArrayList<>();
+        segments.add(first);
+        if (download.resumable && download.length >= 2 * minSegmentBytes) {
+            int count = (int) Math.min(maxSegments, download.length / minSegmentBytes);
+            // Only as many segments as the batch has free connections, never wait for one
+            while (segments.size() < count && connections.tryAcquire()) {
+                segments.add(new Segment(0, 0));
+            }
+            count = segments.size();
+            for (int i = 0; i < count; i++) {
+                Segment segment = segments.get(i);
+                segment.start = download.length * i / count;
+                segment.position = segment.start;
+                segment.end = download.length * (i + 1) / count;
+            }
+        }
+
+        List<FutureTask<Void>> tasks = new ArrayList<>();
+        try {
+            for (int i = 1; i < segments.size(); i++) {
+                FutureTask<Void> task = newSegmentTask(download, segments.get(i));
+                segmentExecutor.execute(task);
+                tasks.add(task);
+            }
+            try {
+                fetch(download, first, probe, attempt);
+            } catch (IOException e) {
+                download.fail(e);
+            }
+        } finally {
+            // Nothing may still be writing to the file when it is handed out or deleted
+            for (FutureTask<Void> task : tasks) {
+                await(task);
+            }
+        }
+        if (download.failure instanceof FileChangedException && !download.restarted) {
+            // Segments of two versions of the file can't be put together, get the new one from the start
+            download.restart();
+            return download(download, cache);
+        }
+        if (download.failure != null) {
+            throw download.failure;
+        }
+        return new Result(download.contentType, download.bytes.get(), segments.size(), download.retries.get(),
+                false);
+    }
+
+    private FutureTask<Void> newSegmentTask(final Download download, final Segment segment) {
+        return new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    fetch(download, segment, null, 0);
+                } catch (IOException e) {
+                    download.fail(e);
+                } catch (RuntimeException e) {
+                    download.fail(new IOException(e));
+                } finally {
+                    connections.release();
+                }
+            }
+        }, null);
+    }
+
+    // Read the segment to its end, reconnecting from the last byte written on every transient failure
+    private void fetch(Download download, Segment segment, Response response, int attempt) throws IOException {
+        while (true) {
+            try {
+                if (response == null) {
+                    response = open(download, segment);
+                }
+                copy(download, segment, response);
+                return;
+            } catch (IOException e) {
+                if (response != null) {
+                    response.connection.disconnect();
+                    response = null;
+                }
+                attempt = onFailure(download, e, attempt);
+            }
+        }
+    }
+
+    // Rethrow the failure if it is final, otherwise wait before the next attempt
+    private int onFailure(Download download, IOException e, int attempt) throws IOException {
+        throwIfCancelled(download);
+        if (attempt >= maxRetries || !isTransient(e)) {
+            throw e;
+        }
+        attempt++;
+        download.retries.incrementAndGet();
+        long deadline = System.currentTimeMillis() + retryDelayMillis * attempt;
+        while (System.currentTimeMillis() < deadline) {
+            throwIfCancelled(download);
+            try {
+                Thread.sleep(Math.min(PERMIT_POLL_MILLIS, Math.max(1, deadline - System.currentTimeMillis())));
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted");
+            }
+        }
+        return attempt;
+    }
+
+    private static boolean isTransient(IOException e) {
+        if (e instanceof HttpStatusException) {
+            int code = ((HttpStatusException) e).getStatusCode();
+            return code >= 500 || code == 408 || code == 429;
+        }
+        return !(e instanceof RangeNotSatisfiedException);
+    }
+
+    private Response open(Download download, Segment segment) throws IOException {
+        throwIfCancelled(download);
+        HttpURLConnection connection = (HttpURLConnection) download.url.openConnection();
+        connection.setConnectTimeout(connectTimeoutMillis);
+        connection.setReadTimeout(readTimeoutMillis);
+        boolean probe = download.length == -1 && segment.end == -1;
+        if (segment.position > segment.start && !download.resumable) {
+            // No proof that the server still has the same file, start over
+            segment.position = segment.start;
+        }
+        if (probe || segment.position > 0 || segment.end >= 0 && segment.end < download.length) {
+            String range = "bytes=" + segment.position + "-" + (segment.end >= 0 ? segment.end - 1 : "");
+            connection.setRequestProperty("Range", range);
+            if (download.validator != null) {
+                connection.setRequestProperty("If-Range", download.validator);
+            }
+        }
+        if (probe && download.cached != null) {
+            if (download.cached.getETag() != null) {
+                connection.setRequestProperty("If-None-Match", download.cached.getETag());
+            }
+            if (download.cached.getLastModified() != null) {
+                connection.setRequestProperty("If-Modified-Since", download.cached.getLastModified());
+            }
+        }
+        try {
+            int code = connection.getResponseCode();
+            if (probe && download.cached != null && code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // No body, the connection can be reused right away
+                connection.getInputStream().close();
+                return new Response(connection, 0, true);
+            }
+            if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_PARTIAL) {
+                throw new HttpStatusException(code, download.url.toString());
+            }
+            if (probe) {
+                readEntity(download, connection, code);
+            }
+            long responseEnd;
+            if (code == HttpURLConnection.HTTP_PARTIAL) {
+                long[] range = parseContentRange(connection.getHeaderField("Content-Range"));
+                if (range == null || range[0] != segment.position) {
+                    throw new RangeNotSatisfiedException("Unexpected Content-Range "
+                            + connection.getHeaderField("Content-Range") + " for " + segment.position);
+                }
+                responseEnd = range[1] + 1;
+            } else {
+                if (segment.start > 0 || segment.end >= 0 && segment.end < download.length) {
+                    // The file changed on the server, the other segments can't be trusted anymore
+                    throw new FileChangedException("Range ignored for " + download.url);
+                }
+                if (!probe) {
+                    // Starting over, maybe with a changed file whose size and validator replace the old ones
+                    readEntity(download, connection, code);
+                    segment.end = download.length;
+                }
+                segment.position = 0;
+                responseEnd = download.length;
+            }
+            return new Response(connection, responseEnd, false);
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    // Size and validator of the file, from the response to the first request
+    private static void readEntity(Download download, HttpURLConnection connection, int code) {
+        long length = -1;
+        if (code == HttpURLConnection.HTTP_PARTIAL) {
+            long[] range = parseContentRange(connection.getHeaderField("Content-Range"));
+            if (range != null) {
+                length = range[2];
+            }
+        } else {
+            length = parseLong(connection.getHeaderField("Content-Length"));
+        }
+        download.length = length;
+        download.contentType = connection.getContentType();
+
+        String etag = connection.getHeaderField("ETag");
+        download.etag = etag;
+        download.lastModified = connection.getHeaderField("Last-Modified");
+        download.cacheControl = connection.getHeaderField("Cache-Control");
+        if (etag != null && !etag.startsWith("W/")) {
+            // Weak validators aren't allowed in If-Range
+            download.validator = etag;
+        } else {
+            download.validator = download.lastModified;
+        }
+        boolean ranges = code == HttpURLConnection.HTTP_PARTIAL
+                || "bytes".equalsIgnoreCase(connection.getHeaderField("Accept-Ranges"));
+        download.resumable = ranges && length >= 0 && download.validator != null;
+    }
+
+    private void copy(Download download, Segment segment, Response response) throws IOException {
+        InputStream input = response.connection.getInputStream();
+        RandomAccessFile output = new RandomAccessFile(download.destination, "rw");
+        byte[] buffer = BufferPool.acquire();
+        try {
+            if (segment.position == 0 && segment.start == 0 && segment.end == download.length) {
+                // A single segment which may have started over, drop whatever was written before
+                output.setLength(Math.max(download.length, 0));
+            }
+            output.seek(segment.position);
+            while (segment.end < 0 || segment.position < segment.end) {
+                throwIfCancelled(download);
+                int max = segment.end < 0 ? buffer.length : (int) Math.min(buffer.length, segment.end - segment.position);
+                int n = input.read(buffer, 0, max);
+                if (n == -1) {
+                    break;
+                }
+                output.write(buffer, 0, n);
+                segment.position += n;
+                download.bytes.addAndGet(n);
+            }
+        } finally {
+            BufferPool.release(buffer);
+            output.close();
+        }
+        if (segment.end >= 0 && segment.position < segment.end) {
+            throw new EOFException("Connection closed at " + segment.position + " of " + segment.end);
+        }
+        if (response.end == segment.end) {
+            // Read to its end, the connection can be reused
+            input.close();
+        } else {
+            // The rest of the response belongs to other segments
+            response.connection.disconnect();
+        }
+    }
+
+    private void acquireConnection(Download download) throws InterruptedIOException {
+        try {
+            while (!connections.tryAcquire(PERMIT_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                throwIfCancelled(download);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted");
+        }
+    }
+
+    // Segments report their failures to the download, the task itself never fails
+    private static void await(FutureTask<Void> task) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                task.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                break;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void throwIfCancelled(Download download) throws InterruptedIOException {
+        if (download.isCancelled()) {
+            throw new InterruptedIOException("Cancelled");
+        }
+    }
+
+    /**
+     * Parse <code>bytes first-last/total</code>. The total is -1 when it is unknown.
+     *
+     * @return first, last and total, or null if the header isn't a byte range
+     */
+    static long[] parseContentRange(String header) {
+        if (header == null || !header.startsWith("bytes ")) {
+            return null;
+        }
+        int dash = header.indexOf('-');
+        int slash = header.indexOf('/');
+        if (dash < 0 || slash < dash) {
+            return null;
+        }
+        long first = parseLong(header.substring(6, dash).trim());
+        long last = parseLong(header.substring(dash + 1, slash).trim());
+        String total = header.substring(slash + 1).trim();
+        if (first < 0 || last < first) {
+            return null;
+        }
+        return new long[]{first, last, "*".equals(total) ? -1 : parseLong(total)};
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Outcome of a finished download
+     */
+    public static final class Result {
+        private final String contentType;
+        private final long bytesTransferred;
+        private final int segments;
+        private final int retries;
+        private final boolean fromCache;
+
+        private Result(String contentType, long bytesTransferred, int segments, int retries, boolean fromCache) {
+            this.contentType = contentType;
+            this.bytesTransferred = bytesTransferred;
+            this.segments = segments;
+            this.retries = retries;
+            this.fromCache = fromCache;
+        }
+
+        /**
+         * Content-Type sent by the server, may be null
+         */
+        public String getContentType() {
+            return contentType;
+        }
+
+        /**
+         * Bytes received, including the ones received again after a download started over
+         */
+        public long getBytesTransferred() {
+            return bytesTransferred;
+        }
+
+        /**
+         * Whether the file is the cached response, either fresh or confirmed by the server
+         */
+        public boolean isFromCache() {
+            return fromCache;
+        }
+
+        /**
+         * Number of segments downloaded in parallel, 1 if the file wasn't split, 0 if it came from the cache
+         */
+        public int getSegments() {
+            return segments;
+        }
+
+        /**
+         * Number of times a request was retried after a transient failure
+         */
+        public int getRetries() {
+            return retries;
+        }
+    }
+
+    /**
+     * The server answered with a status other than 200 or 206
+     */
+    public static class HttpStatusException extends IOException {
+        private final int statusCode;
+
+        HttpStatusException(int statusCode, String url) {
+            super("HTTP " + statusCode + " for " + url);
+            this.statusCode = statusCode;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+    }
+
+    // The server didn't return the requested range, retrying won't help
+    private static class RangeNotSatisfiedException extends IOException {
+        RangeNotSatisfiedException(String message) {
+            super(message);
+        }
+    }
+
+    // The server sent the whole file for a segment, it changed since the download started
+    private static class FileChangedException extends RangeNotSatisfiedException {
+        FileChangedException(String message) {
+            super(message);
+        }
+    }
+
+    private static final class Download implements CancellationToken {
+        private final URL url;
+        private final File destination;
+        private final CancellationToken cancellation;
+        private final AtomicBoolean failed = new AtomicBoolean();
+        // The first failure, the others are usually segments stopping because of it
+        private volatile IOException failure;
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicInteger retries = new AtomicInteger();
+        // Set by the probe, before any other segment starts
+        private volatile long length = -1;
+        private volatile String validator;
+        private volatile boolean resumable;
+        private volatile String contentType;
+        private volatile String etag;
+        private volatile String lastModified;
+        private volatile String cacheControl;
+        private HttpCache.Entry cached;
+        // Started over once because the file changed while its segments were downloaded
+        private boolean restarted;
+
+        private Download(URL url, File destination, CancellationToken cancellation) {
+            this.url = url;
+            this.destination = destination;
+            this.cancellation = cancellation;
+        }
+
+        private void fail(IOException e) {
+            if (failed.compareAndSet(false, true)) {
+                failure = e;
+            }
+        }
+
+        // Forget the file and the failure, once all segments stopped
+        private void restart() {
+            restarted = true;
+            length = -1;
+            validator = null;
+            resumable = false;
+            failure = null;
+            failed.set(false);
+        }
+
+        // Segments stop as soon as one of them fails for good
+        @Override
+        public boolean isCancelled() {
+            return failed.get() || cancellation.isCancelled();
+        }
+    }
+
+    private static final class Segment {
+        private long start;
+        private long position;
+        // Exclusive, -1 if the length of the file is unknown
+        private long end;
+
+        private Segment(long start, long end) {
+            this.start = start;
+            this.position = start;
+            this.end = end;
+        }
+    }
+
+    private static final class Response {
+        private final HttpURLConnection connection;
+        // Exclusive end of the bytes in the response, -1 if unknown
+        private final long end;
+        // 304 for the cached response
+        private final boolean notModified;
+
+        private Response(HttpURLConnection connection, long end, boolean notModified) {
+            this.connection = connection;
+            this.end = end;
+            this.notModified = notModified;
+        }
+    }
+
+    public static class Builder {
+        private HttpDownloader downloader;
+
+        public Builder() {
+            downloader = new HttpDownloader();
+        }
+
+        /**
+         * Default is 15 seconds
+         */
+        public Builder setConnectTimeout(int millis) {
+            downloader.connectTimeoutMillis = millis;
+            return this;
+        }
+
+        /**
+         * Longest wait for the next bytes of a response. Default is 30 seconds
+         */
+        public Builder setReadTimeout(int millis) {
+            downloader.readTimeoutMillis = millis;
+            return this;
+        }
+
+        /**
+         * Attempts after the first one, for every segment. Default is 3
+         */
+        public Builder setMaxRetries(int retries) {
+            downloader.maxRetries = Math.max(0, retries);
+            return this;
+        }
+
+        /**
+         * Delay before the first retry, which grows with every attempt. Default is 500 ms
+         */
+        public Builder setRetryDelay(long millis) {
+            downloader.retryDelayMillis = Math.max(0, millis);
+            return this;
+        }
+
+        /**
+         * Most connections open at the same time, for all downloads of this downloader together. Default is 4
+         */
+        public Builder setMaxConnections(int connections) {
+            downloader.maxConnections = Math.max(1, connections);
+            return this;
+        }
+
+        /**
+         * Most segments a single file is split into. Set to 1 to never split. Default is 4
+         */
+        public Builder setMaxSegments(int segments) {
+            downloader.maxSegments = Math.max(1, segments);
+            return this;
+        }
+
+        /**
+         * Smallest segment worth its own connection. Default is 1 MB
+         */
+        public Builder setMinSegmentBytes(long bytes) {
+            downloader.minSegmentBytes = Math.max(1, bytes);
+            return this;
+        }
+
+        public HttpDownloader build() {
+            downloader.connections = new Semaphore(downloader.maxConnections);
+            downloader.segmentExecutor = newExecutor(downloader.maxConnections);
+            return downloader;
+        }
+
+        private static ThreadPoolExecutor newExecutor(int threads) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ImagePicker-download-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.hanihashemi.imagepicker.core.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Layout of the imported files under a cache directory.
+ * <p/>
+ * Files are spread over 256 subdirectories picked by a hash of the file name, so no directory grows to tens of
+ * thousands of entries. The names in use are kept in memory per subdirectory: a subdirectory is listed once, the
+ * first time a name is reserved in it, and the index is updated with every reservation after that. Unique names
+ * are found in memory instead of probing the file system name by name.
+ */
+public final class StorageLayout {
+    private final static int SHARDS = 256;
+    private final static Map<String, StorageLayout> instances = new HashMap<>();
+
+    private final File root;
+    private final Map<String, Set<String>> names = new HashMap<>();
+
+    private StorageLayout(File root) {
+        this.root = root;
+    }
+
+    public static synchronized StorageLayout getInstance(File root) {
+        String key = root.getAbsolutePath();
+        StorageLayout layout = instances.get(key);
+        if (layout == null) {
+            layout = new StorageLayout(root);
+            instances.put(key, layout);
+        }
+        return layout;
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * Reserve a unique file for the given name. The file is created empty, so the name can't be taken by
+     * anybody else before the content is written. When the name is in use, a counter is added to it:
+     * photo.jpg, photo-1.jpg, photo-2.jpg etc.
+     *
+     * @throws IOException if the file couldn't be created
+     */
+    public synchronized File reserve(String fileName) throws IOException {
+        File shard = getShard(fileName);
+        Set<String> shardNames = getNames(shard);
+        int counter = 0;
+        String candidate = fileName;
+        while (true) {
+            if (shardNames.add(candidate)) {
+                File file = new File(shard, candidate);
+                try {
+                    if (file.createNewFile()) {
+                        return file;
+                    }
+                    // Created by somebody else after the directory was listed, it's in the index now
+                } catch (IOException e) {
+                    shardNames.remove(candidate);
+                    throw e;
+                }
+            }
+            counter++;
+            candidate = getNameWithCounter(fileName, counter);
+        }
+    }
+
+    /**
+     * Forget a file of this layout that was deleted, so its name can be reserved again
+     */
+    public synchronized void release(File file) {
+        Set<String> shardNames = names.get(file.getParentFile().getAbsolutePath());
+        if (shardNames != null) {
+            shardNames.remove(file.getName());
+        }
+    }
+
+    /**
+     * Whether the file is stored in this layout, or directly in the root like files written before the layout
+     * was introduced
+     */
+    public boolean contains(File file) {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent == null) {
+            return false;
+        }
+        return parent.equals(root.getAbsoluteFile())
+                || (parent.getParentFile() != null && parent.getParentFile().equals(root.getAbsoluteFile()));
+    }
+
+    File getShard(String fileName) {
+        int shard = (fileName.hashCode() & 0x7fffffff) % SHARDS;
+        return new File(root, String.format(Locale.US, "%02x", shard));
+    }
+
+    static String getNameWithCounter(String fileName, int counter) {
+        int indexOfDot = fileName.lastIndexOf(".");
+        if (indexOfDot > 0) {
+            return fileName.substring(0, indexOfDot) + "-" + counter + fileName.substring(indexOfDot);
+        }
+        return fileName + "(" + counter + ")";
+    }
+
+    private Set<String> getNames(File shard) {
+        String key = shard.getAbsolutePath();
+        Set<String> shardNames = names.get(key);
+        if (shardNames == null) {
+            shardNames = new HashSet<>();
+            //noinspection ResultOfMethodCallIgnored
+            shard.mkdirs();
+            String[] existing = shard.list();
+            if (existing != null) {
+                for (String name : existing) {
+                    shardNames.add(name);
+                }
+            }
+            names.put(key, shardNames);
+        }
+        return shardNames;
+    }
+}
@@ -0,0 +1,98 @@
+package com.hanihashemi.imagepicker.core.threads;
+
+import android.app.Activity;
+
+import com.hanihashemi.imagepicker.api.callbacks.StreamingImagePickerCallback;
+import com.hanihashemi.imagepicker.api.entity.ChosenImage;
+import com.hanihashemi.imagepicker.utils.CancellationToken;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Delivers the results of the worker threads to a {@link StreamingImagePickerCallback} on the UI thread.
+ * <p/>
+ * Results are queued and a single runnable is posted for all results that arrive before the UI thread gets to
+ * run it, so a burst of finished images doesn't flood the UI thread with one post per image. Nothing is delivered
+ * after the task is cancelled, even results that were queued before.
+ */
+final class CallbackDispatcher {
+    private final Activity activity;
+    private final StreamingImagePickerCallback callback;
+    private final int total;
+    private final CancellationToken cancellation;
+    private final List<Integer> pendingIndexes = new ArrayList<>();
+    private final List<ChosenImage> pendingImages = new ArrayList<>();
+    private List<ChosenImage> completed;
+    private boolean scheduled;
+    private int done;
+
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            List<Integer> indexes;
+            List<ChosenImage> images;
+            List<ChosenImage> completedImages;
+            int doneCount;
+            synchronized (CallbackDispatcher.this) {
+                indexes = new ArrayList<>(pendingIndexes);
+                images = new ArrayList<>(pendingImages);
+                completedImages = completed;
+                doneCount = done;
+                pendingIndexes.clear();
+                pendingImages.clear();
+                completed = null;
+                scheduled = false;
+            }
+            if (cancellation.isCancelled()) {
+                return;
+            }
+            for (int i = 0; i < indexes.size(); i++) {
+                callback.onImageReady(indexes.get(i), images.get(i));
+            }
+            if (!indexes.isEmpty()) {
+                callback.onProgress(doneCount, total);
+            }
+            if (completedImages != null) {
+                callback.onImagesChosen(completedImages);
+            }
+        }
+    };
+
+    /**
+     * @param cancellation may be null
+     */
+    CallbackDispatcher(Activity activity, StreamingImagePickerCallback callback, int total,
+                       CancellationToken cancellation) {
+        this.activity = activity;
+        this.callback = callback;
+        this.total = total;
+        this.cancellation = cancellation != null ? cancellation : CancellationToken.NONE;
+    }
+
+    void imageReady(int index, ChosenImage image) {
+        synchronized (this) {
+            pendingIndexes.add(index);
+            pendingImages.add(image);
+            done++;
+        }
+        schedule();
+    }
+
+    void complete(List<ChosenImage> images) {
+        synchronized (this) {
+            completed = images;
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        synchronized (this) {
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        activity.runOnUiThread(flush);
+    }
+}
@@ -6,8 +6,6 @@ import android.content.ContentUris;
 import android.content.Context;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Matrix;
 import android.media.ExifInterface;
 import android.net.Uri;
 import android.os.Build;
@@ -19,32 +17,47 @@ import android.text.TextUtils;
 import android.webkit.MimeTypeMap;
 
 import com.hanihashemi.imagepicker.api.CacheLocation;
+import com.hanihashemi.imagepicker.api.OutputEncoder;
+import com.hanihashemi.imagepicker.api.PipelineStage;
+import com.hanihashemi.imagepicker.api.callbacks.PickerMetricsListener;
 import com.hanihashemi.imagepicker.api.entity.ChosenImage;
 import com.hanihashemi.imagepicker.api.exceptions.PickerException;
+import com.hanihashemi.imagepicker.core.cache.DigestIndex;
+import com.hanihashemi.imagepicker.core.cache.HttpCache;
+import com.hanihashemi.imagepicker.core.net.HttpDownloader;
+import com.hanihashemi.imagepicker.core.storage.StorageLayout;
+import com.hanihashemi.imagepicker.utils.BitmapPool;
 import com.hanihashemi.imagepicker.utils.BitmapUtils;
+import com.hanihashemi.imagepicker.utils.CancellationToken;
 import com.hanihashemi.imagepicker.utils.FileUtils;
 import com.hanihashemi.imagepicker.utils.Logger;
 import com.hanihashemi.imagepicker.utils.MimeUtils;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.ref.SoftReference;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.OutputStream;
 import java.net.URLConnection;
-import java.net.URLDecoder;
-import java.nio.charset.Charset;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 
 import static com.hanihashemi.imagepicker.utils.StreamHelper.close;
+import static com.hanihashemi.imagepicker.utils.StreamHelper.closeSilent;
 import static com.hanihashemi.imagepicker.utils.StreamHelper.flush;
 import static com.hanihashemi.imagepicker.utils.StreamHelper.verifyStream;
 
@@ -55,44 +68,518 @@ public class FileProcessorThread extends Thread {
     final static int THUMBNAIL_BIG = 1;
     final static int THUMBNAIL_SMALL = 2;
     private final static String TAG = FileProcessorThread.class.getSimpleName();
+    private final static String DIGEST_ALGORITHM = "SHA-256";
+    private final static String HTTP_CACHE_DIRECTORY = ".http-cache";
+    private final static String JOURNAL_DIRECTORY = ".journal";
+    // Chunks processed at once, the next one is only turned into images when the oldest is delivered
+    private final static int MAX_CHUNKS_IN_FLIGHT = 2;
+    // Empty when the batch is processed in chunks
     final List<? extends ChosenImage> files;
+    // URIs of a batch processed in chunks, null otherwise
+    private final List<String> uris;
+    private final int chunkSize;
     private final int cacheLocation;
     Context context;
+    private Executor executor;
+    private boolean shouldDeduplicate;
+    private PickerMetricsListener metricsListener;
+    private PickerTaskImpl task;
+    // Shared by the downloads of one batch, so they share its connection limit
+    private HttpDownloader downloader;
+    private long httpCacheSize;
+    private long maxDecodeBytes;
+    private MemoryGovernor governor;
+    private boolean shouldResume;
+    // Stages completed for every image, null unless interrupted batches are resumed
+    private ProcessingJournal journal;
+    // Rows of the MediaStore URIs of the files in flight, looked up before they are processed
+    private MediaStoreResolver mediaStore;
+    OutputEncoder encoder = OutputEncoder.DEFAULT;
+    boolean shouldCacheThumbnails;
+    // Decodes and thumbnails of the batch, created when it starts
+    private ImageRenderer renderer;
+    // Files written for every image that isn't finished yet, deleted if the task is cancelled
+    private final Map<ChosenImage, List<File>> outputs =
+            Collections.synchronizedMap(new IdentityHashMap<ChosenImage, List<File>>());
+    MetricsRecorder metrics;
 
     FileProcessorThread(Context context, List<? extends ChosenImage> files, int cacheLocation) {
         this.context = context;
         this.files = files;
+        this.uris = null;
+        this.chunkSize = 0;
         this.cacheLocation = cacheLocation;
     }
 
+    /**
+     * Process the picked URIs in chunks of the given size. Only the images of the chunks in flight are held, every
+     * chunk is handed to {@link #onChunkProcessed(int, List)} once it is done and then dropped.
+     */
+    FileProcessorThread(Context context, List<String> uris, int chunkSize, int cacheLocation) {
+        this.context = context;
+        this.files = Collections.emptyList();
+        this.uris = uris;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.cacheLocation = cacheLocation;
+    }
+
+    /**
+     * Executor on which the files are processed. Defaults to the shared {@link ProcessorPool}
+     * for the cache location.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Hash every import while it is copied, and reuse an already imported file with the same content
+     */
+    public void setShouldDeduplicate(boolean shouldDeduplicate) {
+        this.shouldDeduplicate = shouldDeduplicate;
+    }
+
+    /**
+     * Listener for the timing and memory figures of every stage, and of the whole batch
+     */
+    public void setMetricsListener(PickerMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    /**
+     * Size of the cache for downloaded images, 0 to download every time
+     */
+    public void setHttpCacheSize(long httpCacheSize) {
+        this.httpCacheSize = httpCacheSize;
+    }
+
+    /**
+     * Largest bitmap an image is decoded to in one go. Larger images are decoded in bands, so the memory they
+     * take doesn't depend on their resolution. Defaults to an eighth of the heap.
+     */
+    public void setMaxDecodeBytes(long maxDecodeBytes) {
+        this.maxDecodeBytes = maxDecodeBytes;
+    }
+
+    /**
+     * Keep a journal of the completed stages of every image, so the batch resumes where it stopped if the process
+     * is killed and the same URIs are picked again
+     */
+    public void setShouldResumeInterruptedBatches(boolean shouldResume) {
+        this.shouldResume = shouldResume;
+    }
+
+    /**
+     * Format and quality of the resized images and the thumbnails
+     */
+    public void setOutputEncoder(OutputEncoder encoder) {
+        this.encoder = encoder != null ? encoder : OutputEncoder.DEFAULT;
+    }
+
+    /**
+     * Task which is completed with the result, and which stops the processing when it is cancelled
+     */
+    public void setTask(PickerTaskImpl task) {
+        this.task = task;
+    }
+
+    Executor getExecutor() {
+        return executor != null ? executor : ProcessorPool.forCacheLocation(cacheLocation);
+    }
+
+    PickerTaskImpl getTask() {
+        return task;
+    }
+
+    boolean isCancelled() {
+        return task != null && task.isCancelled();
+    }
+
+    CancellationToken getCancellation() {
+        return task != null ? task : CancellationToken.NONE;
+    }
+
+    void throwIfCancelled() throws PickerException {
+        if (isCancelled()) {
+            throw new PickerException("Cancelled");
+        }
+    }
+
+    /**
+     * Whether the batch is processed in chunks, see {@link #onChunkProcessed(int, List)}
+     */
+    boolean isChunked() {
+        return uris != null;
+    }
+
+    /**
+     * Number of picked files, also when they are processed in chunks
+     */
+    int getFileCount() {
+        return uris != null ? uris.size() : files.size();
+    }
+
     @Override
     public void run() {
-        processFiles();
+        if (isChunked()) {
+            processChunks();
+        } else {
+            processFiles();
+        }
+        // Done or cancelled, there is nothing left to resume
+        if (journal != null) {
+            journal.delete();
+        }
+    }
+
+    private void startBatch() {
+        metrics = new MetricsRecorder(metricsListener);
+        downloader = new HttpDownloader.Builder().build();
+        governor = MemoryGovernor.getInstance(context);
+        mediaStore = new MediaStoreResolver();
+        renderer = new ImageRenderer(context, encoder, cacheLocation, getExecutor(), governor, maxDecodeBytes,
+                shouldCacheThumbnails);
+        if (shouldResume && !isCancelled()) {
+            openJournal();
+        }
+    }
+
+    private void openJournal() {
+        List<String> batch = uris;
+        if (batch == null) {
+            batch = new ArrayList<>();
+            for (ChosenImage file : files) {
+                batch.add(file.getQueryUri());
+            }
+        }
+        try {
+            journal = ProcessingJournal.open(getJournalDirectory(context, cacheLocation), batch, getJournalOptions());
+        } catch (IOException | PickerException e) {
+            // Processed without a journal
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * URIs of the last batch which was interrupted by the process being killed, or null if there is none
+     */
+    public static List<String> findInterruptedBatch(Context context, int cacheLocation) throws PickerException {
+        return ProcessingJournal.findInterrupted(getJournalDirectory(context, cacheLocation));
+    }
+
+    private static File getJournalDirectory(Context context, int cacheLocation) throws PickerException {
+        return new File(getTargetDirectory(context, cacheLocation, Environment.DIRECTORY_PICTURES),
+                JOURNAL_DIRECTORY);
+    }
+
+    /**
+     * Options which change the outputs. A journal written with other options isn't resumed.
+     */
+    String getJournalOptions() {
+        return "deduplicate=" + shouldDeduplicate;
     }
 
     private void processFiles() {
-        for (ChosenImage file : files) {
+        startBatch();
+        await(submit(files, 0));
+        metrics.finishBatch(files);
+    }
+
+    // The images of the next chunk are created while the previous chunk is still being processed, so the workers
+    // never run dry. Once two chunks are in flight, the oldest one has to be delivered first.
+    private void processChunks() {
+        startBatch();
+        ArrayDeque<Chunk> inFlight = new ArrayDeque<>();
+        int succeeded = 0;
+        for (int offset = 0; offset < uris.size() && !isCancelled(); offset += chunkSize) {
+            if (inFlight.size() == MAX_CHUNKS_IN_FLIGHT) {
+                succeeded += deliver(inFlight.removeFirst());
+            }
+            List<ChosenImage> images = new ArrayList<>();
+            for (String uri : uris.subList(offset, Math.min(uris.size(), offset + chunkSize))) {
+                images.add(createFile(uri));
+            }
+            inFlight.addLast(new Chunk(offset, images, submit(images, offset)));
+        }
+        while (!inFlight.isEmpty()) {
+            succeeded += deliver(inFlight.removeFirst());
+        }
+        metrics.finishBatch(uris.size(), succeeded);
+    }
+
+    // Wait for the chunk and hand it over, returns the number of images that succeeded
+    private int deliver(Chunk chunk) {
+        await(chunk.done);
+        mediaStore.remove(chunk.images);
+        int succeeded = 0;
+        for (ChosenImage image : chunk.images) {
+            if (image.isSuccess()) {
+                succeeded++;
+            }
+        }
+        if (!isCancelled()) {
+            onChunkProcessed(chunk.offset, chunk.images);
+        }
+        return succeeded;
+    }
+
+    /**
+     * Wait for the latch, the thread stays interrupted if it is interrupted meanwhile
+     */
+    void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Every file is processed as its own task; results stay in the original order because each
+    // task only updates its own ChosenImage in the files list.
+    private CountDownLatch submit(List<? extends ChosenImage> batch, int offset) {
+        Executor executor = getExecutor();
+        if (!isCancelled()) {
+            mediaStore.add(context, batch);
+            Logger.d(TAG, "processFiles: MediaStore queries: " + mediaStore.getQueryCount());
+        }
+        final CountDownLatch latch = new CountDownLatch(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            final int index = offset + i;
+            final ChosenImage file = batch.get(i);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (isCancelled()) {
+                            file.setSuccess(false);
+                            return;
+                        }
+                        processFileCompletely(index, file);
+                        onFileProcessed(index, file);
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+        return latch;
+    }
+
+    /**
+     * Image for a picked URI of a batch processed in chunks
+     */
+    ChosenImage createFile(String uri) {
+        ChosenImage file = new ChosenImage();
+        file.setQueryUri(uri);
+        return file;
+    }
+
+    /**
+     * Called on the processing thread with every chunk of a batch processed in chunks, in order, once all its files
+     * are done. Not called once the task is cancelled.
+     *
+     * @param offset position of the first file of the chunk in the batch
+     */
+    void onChunkProcessed(int offset, List<ChosenImage> chunk) {
+    }
+
+    private void processFileCompletely(int index, ChosenImage file) {
+        int resumed = restore(index, file);
+        try {
+            Logger.d(TAG, "processFile: Before: " + file.toString());
+            if (resumed < ProcessingJournal.RESOLVED) {
+                processFile(index, file);
+                recordStage(index, ProcessingJournal.RESOLVED, file);
+            }
+            throwIfCancelled();
+            if (resumed < ProcessingJournal.IMPORTED) {
+                postProcess(index, file);
+                recordStage(index, ProcessingJournal.IMPORTED, file);
+            }
+            file.setSuccess(true);
+            Logger.d(TAG, "processFile: Final Path: " + file.toString());
+        } catch (PickerException e) {
+            if (!isCancelled()) {
+                e.printStackTrace();
+            }
+            file.setSuccess(false);
+        }
+        if (file.isSuccess()) {
+            postProcessFile(index, file, resumed);
+        }
+        List<File> written = outputs.remove(file);
+        if (isCancelled()) {
+            file.setSuccess(false);
+            discard(file, written);
+        }
+    }
+
+    // Restore the image from the journal, with the files written for it, returns the stage it resumes after
+    private int restore(int index, ChosenImage file) {
+        if (journal == null) {
+            return 0;
+        }
+        List<File> written = new ArrayList<>();
+        int stage = journal.restore(index, file, written);
+        for (File output : written) {
+            addOutput(file, output);
+            // A resolved import wasn't placed yet and may still be moved, everything after that is a final output
+            if (stage == ProcessingJournal.RESOLVED && output.getAbsolutePath().equals(file.getOriginalPath())) {
+                OwnedFiles.register(output.getAbsolutePath());
+            }
+        }
+        if (stage > 0) {
+            Logger.d(TAG, "processFile: Resuming " + file.getQueryUri() + " after stage " + stage);
+        }
+        return stage;
+    }
+
+    /**
+     * Journal a completed {@link ProcessingJournal} stage of the image, with the files written for it so far
+     */
+    void recordStage(int index, int stage, ChosenImage file) {
+        if (journal == null) {
+            return;
+        }
+        List<File> written = null;
+        synchronized (outputs) {
+            List<File> files = outputs.get(file);
+            if (files != null) {
+                written = new ArrayList<>(files);
+            }
+        }
+        journal.record(index, stage, file, written);
+    }
+
+    /**
+     * Remember a file written for the image, so it can be deleted if the task is cancelled
+     */
+    void addOutput(ChosenImage file, File output) {
+        synchronized (outputs) {
+            List<File> files = outputs.get(file);
+            if (files == null) {
+                files = new ArrayList<>();
+                outputs.put(file, files);
+            }
+            files.add(output);
+        }
+    }
+
+    private boolean isOutput(ChosenImage file, File output) {
+        synchronized (outputs) {
+            List<File> files = outputs.get(file);
+            return files != null && files.contains(output);
+        }
+    }
+
+    private void removeOutput(ChosenImage file, File output) {
+        synchronized (outputs) {
+            List<File> files = outputs.get(file);
+            if (files != null) {
+                files.remove(output);
+            }
+        }
+    }
+
+    // Delete the files written for an image that won't be delivered
+    private void discard(ChosenImage file, List<File> written) {
+        if (written == null) {
+            return;
+        }
+        Logger.d(TAG, "discard: Cancelled, deleting " + written);
+        for (File output : written) {
+            //noinspection ResultOfMethodCallIgnored
+            output.delete();
+            OwnedFiles.release(output.getAbsolutePath());
             try {
-                Logger.d(TAG, "processFile: Before: " + file.toString());
-                processFile(file);
-                postProcess(file);
-                file.setSuccess(true);
-                Logger.d(TAG, "processFile: Final Path: " + file.toString());
+                getStorageLayout(file.getDirectoryType()).release(output);
             } catch (PickerException e) {
                 e.printStackTrace();
-                file.setSuccess(false);
             }
         }
     }
 
-    private void postProcess(ChosenImage file) throws PickerException {
+    /**
+     * Called on the worker thread once the file has been imported successfully.
+     *
+     * @param resumedStage last {@link ProcessingJournal} stage restored from an interrupted batch, 0 if none
+     */
+    void postProcessFile(int index, ChosenImage file, int resumedStage) {
+    }
+
+    /**
+     * Called on the worker thread once all the work for the file at the given index is done, whether it
+     * succeeded or not. The index is the position in the whole batch, also when it is processed in chunks.
+     */
+    void onFileProcessed(int index, ChosenImage file) {
+    }
+
+    private void postProcess(int index, ChosenImage file) throws PickerException {
         file.setCreatedAt(Calendar.getInstance().getTime());
         File f = new File(file.getOriginalPath());
         file.setSize(f.length());
-        copyFileToFolder(file);
+        MetricsRecorder.Stage stage = metrics.startStage(index, file, PipelineStage.COPY);
+        try {
+            copyFileToFolder(file, stage);
+            if (shouldDeduplicate) {
+                deduplicate(file, stage);
+            }
+        } finally {
+            stage.finish();
+        }
+    }
+
+    // Point the file to an earlier import with the same digest, and drop the copy that was just written
+    private void deduplicate(ChosenImage file, MetricsRecorder.Stage stage) throws PickerException {
+        File current = new File(file.getOriginalPath());
+        try {
+            if (file.getDigest() == null) {
+                // Files that were moved into place or downloaded, nothing was copied that could have been hashed
+                file.setDigest(FileUtils.getDigest(current, DIGEST_ALGORITHM));
+                stage.read(current.length());
+            }
+        } catch (IOException e) {
+            throw new PickerException(e);
+        }
+        StorageLayout layout = getStorageLayout(file.getDirectoryType());
+        DigestIndex index = DigestIndex.getInstance(layout.getRoot());
+        String existing = index.find(file.getDigest());
+        if (existing == null) {
+            index.put(file.getDigest(), current);
+        } else if (!existing.equals(current.getAbsolutePath()) && isOutput(file, current)) {
+            Logger.d(TAG, "deduplicate: Reusing " + existing + " for " + current);
+            //noinspection ResultOfMethodCallIgnored
+            current.delete();
+            // The name may be reserved again by another image right away, it must not be deleted on cancellation
+            removeOutput(file, current);
+            layout.release(current);
+            file.setOriginalPath(existing);
+            file.setDisplayName(new File(existing).getName());
+        }
     }
 
-    private void copyFileToFolder(ChosenImage file) throws PickerException {
+    // Copy an import, hashing it on the way when deduplication is enabled
+    private void copyImport(InputStream input, OutputStream output, ChosenImage file, MetricsRecorder.Stage stage)
+            throws IOException {
+        long bytes;
+        if (shouldDeduplicate) {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException(e.getMessage());
+            }
+            DigestOutputStream digestStream = new DigestOutputStream(output, digest);
+            bytes = FileUtils.copyLarge(input, digestStream, getCancellation());
+            digestStream.flush();
+            file.setDigest(FileUtils.toHex(digest.digest()));
+        } else {
+            bytes = FileUtils.copyLarge(input, output, getCancellation());
+        }
+        stage.read(bytes);
+        stage.written(bytes);
+    }
+
+    private void copyFileToFolder(ChosenImage file, MetricsRecorder.Stage stage) throws PickerException {
         Logger.d(TAG, "copyFileToFolder: folder: " + file.getDirectoryType());
         Logger.d(TAG, "copyFileToFolder: extension: " + file.getExtension());
         Logger.d(TAG, "copyFileToFolder: mimeType: " + file.getMimeType());
@@ -102,43 +589,91 @@ public class FileProcessorThread extends Thread {
         } else if (file.getType().equals("video")) {
             file.setDirectoryType(Environment.DIRECTORY_MOVIES);
         }
-        String outputPath = getTargetLocationToCopy(file);
-        Logger.d(TAG, "copyFileToFolder: Out Path: " + outputPath);
         // Check if file is already in the required destination
-        if (outputPath.equals(file.getOriginalPath())) {
+        if (getStorageLayout(file.getDirectoryType()).contains(new File(file.getOriginalPath()))) {
+            // An import that was written in place is final now
+            OwnedFiles.release(file.getOriginalPath());
             return;
         }
+        String outputPath = getTargetLocationToCopy(file);
+        addOutput(file, new File(outputPath));
+        Logger.d(TAG, "copyFileToFolder: Out Path: " + outputPath);
         try {
             File inputFile = new File(file.getOriginalPath());
             File copyTo = new File(outputPath);
-            FileUtils.copyFile(inputFile, copyTo);
+            // Files the library wrote itself (camera output, imports) are moved, the user's files are copied
+            boolean owned = OwnedFiles.isOwned(inputFile.getAbsolutePath());
+            if (shouldDeduplicate && !owned) {
+                copyUserFile(inputFile, copyTo, file, stage);
+            } else if (FileUtils.placeFile(inputFile, copyTo, owned, getCancellation())) {
+                stage.read(copyTo.length());
+                stage.written(copyTo.length());
+            }
+            if (owned) {
+                OwnedFiles.release(inputFile.getAbsolutePath());
+            }
             file.setOriginalPath(copyTo.getAbsolutePath());
         } catch (IOException e) {
             e.printStackTrace();
+            File reserved = new File(outputPath);
+            //noinspection ResultOfMethodCallIgnored
+            reserved.delete();
+            getStorageLayout(file.getDirectoryType()).release(reserved);
             throw new PickerException(e);
         }
     }
 
-    private void processFile(ChosenImage file) throws PickerException {
+    private void copyUserFile(File source, File destination, ChosenImage file, MetricsRecorder.Stage stage)
+            throws IOException {
+        FileInputStream input = new FileInputStream(source);
+        try {
+            FileOutputStream output = new FileOutputStream(destination);
+            try {
+                copyImport(input, output, file, stage);
+            } finally {
+                output.close();
+            }
+        } finally {
+            input.close();
+        }
+        //noinspection ResultOfMethodCallIgnored
+        destination.setLastModified(source.lastModified());
+    }
+
+    private void processFile(int index, ChosenImage file) throws PickerException {
         String uri = file.getQueryUri();
         if (uri.startsWith("file://") || uri.startsWith("/")) {
             file = sanitizeUri(file);
             file.setDisplayName(Uri.parse(file.getOriginalPath()).getLastPathSegment());
             file.setMimeType(guessMimeTypeFromUrl(file.getOriginalPath(), file.getType()));
         } else if (uri.startsWith("http")) {
-            file = downloadAndSaveFile(file);
+            MetricsRecorder.Stage stage = metrics.startStage(index, file, PipelineStage.IMPORT);
+            try {
+                file = downloadAndSaveFile(file, stage);
+            } finally {
+                stage.finish();
+            }
         } else if (uri.startsWith("content:")) {
-            file = getAbsolutePathIfAvailable(file);
-        }
-        uri = file.getOriginalPath();
-        // Still content:: Try ContentProvider stream import
-        if (uri.startsWith("content:")) {
-            file = getFromContentProvider(file);
+            MetricsRecorder.Stage stage = metrics.startStage(index, file, PipelineStage.RESOLVE);
+            try {
+                file = getAbsolutePathIfAvailable(file);
+            } finally {
+                stage.finish();
+            }
         }
         uri = file.getOriginalPath();
-        // Still content:: Try ContentProvider stream import alternate
         if (uri.startsWith("content:")) {
-            file = getFromContentProviderAlternate(file);
+            MetricsRecorder.Stage stage = metrics.startStage(index, file, PipelineStage.IMPORT);
+            try {
+                // Still content:: Try ContentProvider stream import
+                file = getFromContentProvider(file, stage);
+                // Still content:: Try ContentProvider stream import alternate
+                if (file.getOriginalPath().startsWith("content:")) {
+                    file = getFromContentProviderAlternate(file, stage);
+                }
+            } finally {
+                stage.finish();
+            }
         }
 
         // Check for URL Encoded file paths
@@ -160,53 +695,43 @@ public class FileProcessorThread extends Thread {
         return file;
     }
 
-    private ChosenImage getFromContentProviderAlternate(ChosenImage file) throws PickerException {
-        BufferedOutputStream outStream = null;
-        BufferedInputStream bStream = null;
+    private ChosenImage getFromContentProviderAlternate(ChosenImage file, MetricsRecorder.Stage stage)
+            throws PickerException {
+        InputStream inputStream = null;
+        FileOutputStream outStream = null;
 
         try {
-            InputStream inputStream = context.getContentResolver()
+            inputStream = context.getContentResolver()
                     .openInputStream(Uri.parse(file.getOriginalPath()));
 
-            bStream = new BufferedInputStream(inputStream);
-            String mimeType = URLConnection.guessContentTypeFromStream(inputStream);
-
-            verifyStream(file.getOriginalPath(), bStream);
+            verifyStream(file.getOriginalPath(), inputStream);
 
             String localFilePath = generateFileName(file);
 
-            outStream = new BufferedOutputStream(new FileOutputStream(localFilePath));
-            byte[] buf = new byte[2048];
-            int len;
-            while ((len = bStream.read(buf)) > 0) {
-                outStream.write(buf, 0, len);
-            }
+            // Providers usually hand out a file backed stream, which FileUtils copies without a heap buffer
+            outStream = new FileOutputStream(localFilePath);
+            copyImport(inputStream, outStream, file, stage);
             file.setOriginalPath(localFilePath);
-            if (file.getMimeType() != null && file.getMimeType().contains("/*")) {
-                if (mimeType != null && !mimeType.isEmpty()) {
-                    file.setMimeType(mimeType);
-                } else {
-                    file.setMimeType(guessMimeTypeFromUrl(file.getOriginalPath(), file.getType()));
-                }
-            }
+            updateMimeTypeFromContent(file);
         } catch (IOException e) {
             throw new PickerException(e);
         } finally {
             flush(outStream);
-            close(bStream);
+            close(inputStream);
             close(outStream);
         }
 
         return file;
     }
 
-    private ChosenImage getFromContentProvider(ChosenImage file) throws PickerException {
+    private ChosenImage getFromContentProvider(ChosenImage file, MetricsRecorder.Stage stage) throws PickerException {
 
-        BufferedInputStream inputStream = null;
-        BufferedOutputStream outStream = null;
+        ParcelFileDescriptor parcelFileDescriptor = null;
+        FileInputStream inputStream = null;
+        FileOutputStream outStream = null;
         try {
             String localFilePath = generateFileName(file);
-            ParcelFileDescriptor parcelFileDescriptor = context
+            parcelFileDescriptor = context
                     .getContentResolver().openFileDescriptor(Uri.parse(file.getOriginalPath()),
                             "r");
             verifyStream(file.getOriginalPath(), parcelFileDescriptor);
@@ -214,36 +739,44 @@ public class FileProcessorThread extends Thread {
             FileDescriptor fileDescriptor = parcelFileDescriptor
                     .getFileDescriptor();
 
-            inputStream = new BufferedInputStream(new FileInputStream(fileDescriptor));
-            String mimeType = URLConnection.guessContentTypeFromStream(inputStream);
-            BufferedInputStream reader = new BufferedInputStream(inputStream);
-
-            outStream = new BufferedOutputStream(
-                    new FileOutputStream(localFilePath));
-            byte[] buf = new byte[2048];
-            int len;
-            while ((len = reader.read(buf)) > 0) {
-                outStream.write(buf, 0, len);
-            }
+            inputStream = new FileInputStream(fileDescriptor);
+            outStream = new FileOutputStream(localFilePath);
+            copyImport(inputStream, outStream, file, stage);
             flush(outStream);
             file.setOriginalPath(localFilePath);
-            if (file.getMimeType() != null && file.getMimeType().contains("/*")) {
-                if (mimeType != null && !mimeType.isEmpty()) {
-                    file.setMimeType(mimeType);
-                } else {
-                    file.setMimeType(guessMimeTypeFromUrl(file.getOriginalPath(), file.getType()));
-                }
-            }
+            updateMimeTypeFromContent(file);
         } catch (IOException e) {
             throw new PickerException(e);
         } finally {
             flush(outStream);
             close(outStream);
             close(inputStream);
+            close(parcelFileDescriptor);
         }
         return file;
     }
 
+    // The header is sniffed from the imported copy, so the source stream doesn't have to be buffered for it
+    private void updateMimeTypeFromContent(ChosenImage file) {
+        if (file.getMimeType() != null && file.getMimeType().contains("/*")) {
+            String mimeType = null;
+            InputStream header = null;
+            try {
+                header = new BufferedInputStream(new FileInputStream(file.getOriginalPath()), 64);
+                mimeType = URLConnection.guessContentTypeFromStream(header);
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                closeSilent(header);
+            }
+            if (mimeType != null && !mimeType.isEmpty()) {
+                file.setMimeType(mimeType);
+            } else {
+                file.setMimeType(guessMimeTypeFromUrl(file.getOriginalPath(), file.getType()));
+            }
+        }
+    }
+
     // Try to get a local copy if available
 
     private ChosenImage getAbsolutePathIfAvailable(ChosenImage file) {
@@ -258,6 +791,25 @@ public class FileProcessorThread extends Thread {
             file.setOriginalPath(file.getQueryUri());
         }
 
+        MediaStoreResolver.Row row = mediaStore != null ? mediaStore.get(file.getQueryUri()) : null;
+        if (row != null) {
+            // A path is only used if it can be read, otherwise the content is streamed from the provider
+            if (row.data != null && new File(row.data).canRead()) {
+                Logger.d(TAG, "processFile: Path: " + row.data);
+                file.setOriginalPath(row.data);
+            }
+            if (row.displayName != null) {
+                file.setDisplayName(row.displayName);
+            }
+            if (row.mimeType != null) {
+                file.setMimeType(row.mimeType);
+            }
+            if (row.size >= 0) {
+                file.setSize(row.size);
+            }
+            return file;
+        }
+
         // Try to see if there's a cached local copy that is available
         if (file.getOriginalPath().startsWith("content://")) {
             try {
@@ -396,17 +948,25 @@ public class FileProcessorThread extends Thread {
         return "com.android.providers.media.documents".equals(uri.getAuthority());
     }
 
-    private ChosenImage downloadAndSaveFile(ChosenImage file) {
-        String localFilePath;
+    // Download into a temporary file next to the final one, which is named once the type of the content is known
+    private ChosenImage downloadAndSaveFile(ChosenImage file, MetricsRecorder.Stage stage) throws PickerException {
+        StorageLayout layout = getStorageLayout(file.getDirectoryType());
+        File partial = reserve(layout, UUID.randomUUID().toString() + ".part");
+        addOutput(file, partial);
+        HttpCache cache = null;
+        if (httpCacheSize > 0) {
+            cache = HttpCache.getInstance(new File(layout.getRoot(), HTTP_CACHE_DIRECTORY));
+            cache.setMaxSize(httpCacheSize);
+        }
         try {
-            URL u = new URL(file.getQueryUri());
-            HttpURLConnection urlConnection = (HttpURLConnection) u.openConnection();
-            InputStream stream = new BufferedInputStream(urlConnection.getInputStream());
-            BufferedInputStream bStream = new BufferedInputStream(stream);
+            HttpDownloader.Result result = downloader.download(file.getQueryUri(), partial, cache,
+                    getCancellation());
+            stage.read(result.getBytesTransferred());
+            stage.written(result.getBytesTransferred());
 
             String mimeType = guessMimeTypeFromUrl(file.getQueryUri(), file.getType());
             if (mimeType == null) {
-                mimeType = URLConnection.guessContentTypeFromStream(stream);
+                mimeType = guessContentTypeFromFile(partial);
             }
 
             if (mimeType == null && file.getQueryUri().contains(".")) {
@@ -420,28 +980,38 @@ public class FileProcessorThread extends Thread {
 
             file.setMimeType(mimeType);
 
-            localFilePath = generateFileName(file);
-
-            File localFile = new File(localFilePath);
-
-            FileOutputStream fileOutputStream = new FileOutputStream(localFile);
-
-            byte[] buffer = new byte[2048];
-            int len;
-            while ((len = bStream.read(buffer)) > 0) {
-                fileOutputStream.write(buffer, 0, len);
-            }
-            fileOutputStream.flush();
-            fileOutputStream.close();
-            bStream.close();
-            file.setOriginalPath(localFilePath);
-        } catch (Exception e) {
-            e.printStackTrace();
+            File localFile = new File(generateFileName(file));
+            FileUtils.placeFile(partial, localFile, true, getCancellation());
+            file.setOriginalPath(localFile.getAbsolutePath());
+        } catch (IOException e) {
+            throw new PickerException(e);
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            partial.delete();
+            removeOutput(file, partial);
+            layout.release(partial);
         }
         return file;
     }
 
-    private String getTargetDirectory(String type) throws PickerException {
+    private static String guessContentTypeFromFile(File file) {
+        InputStream stream = null;
+        try {
+            stream = new BufferedInputStream(new FileInputStream(file));
+            return URLConnection.guessContentTypeFromStream(stream);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            closeSilent(stream);
+        }
+    }
+
+    String getTargetDirectory(String type) throws PickerException {
+        return getTargetDirectory(context, cacheLocation, type);
+    }
+
+    static String getTargetDirectory(Context context, int cacheLocation, String type)
+            throws PickerException {
         String directory;
         switch (cacheLocation) {
             case CacheLocation.EXTERNAL_CACHE_DIR:
@@ -502,10 +1072,7 @@ public class FileProcessorThread extends Thread {
             }
         }
 
-        String probableFileName = fileName;
-        File probableFile = new File(getTargetDirectory(file.getDirectoryType()) + File.separator
-                + probableFileName);
-        return probableFile.getAbsolutePath();
+        return reserve(getStorageLayout(file.getDirectoryType()), fileName).getAbsolutePath();
     }
 
     private String generateFileName(ChosenImage file) throws PickerException {
@@ -526,234 +1093,123 @@ public class FileProcessorThread extends Thread {
             file.setMimeType(guessMimeTypeFromUrl(file.getOriginalPath(), file.getType()));
         }
 
-        String probableFileName = fileName;
-        File probableFile = new File(getTargetDirectory(file.getDirectoryType()) + File.separator
-                + probableFileName);
-        int counter = 0;
-        while (probableFile.exists()) {
-            counter++;
-            if (fileName.contains(".")) {
-                int indexOfDot = fileName.lastIndexOf(".");
-                probableFileName = fileName.substring(0, indexOfDot - 1) + "-" + counter + "." + fileName.substring(indexOfDot + 1);
-            } else {
-                probableFileName = fileName + "(" + counter + ")";
-            }
-            probableFile = new File(getTargetDirectory(file.getDirectoryType()) + File.separator
-                    + probableFileName);
-        }
-        fileName = probableFileName;
+        File reservedFile = reserve(getStorageLayout(file.getDirectoryType()), fileName);
+        OwnedFiles.register(reservedFile.getAbsolutePath());
+        addOutput(file, reservedFile);
+
+        file.setDisplayName(reservedFile.getName());
+
+        return reservedFile.getAbsolutePath();
+    }
 
-        file.setDisplayName(fileName);
+    private static File reserve(StorageLayout layout, String fileName) throws PickerException {
+        try {
+            return layout.reserve(fileName);
+        } catch (IOException e) {
+            throw new PickerException(e);
+        }
+    }
 
-        return getTargetDirectory(file.getDirectoryType()) + File.separator
-                + fileName;
+    StorageLayout getStorageLayout(String type) throws PickerException {
+        return StorageLayout.getInstance(new File(getTargetDirectory(type)));
     }
 
     Activity getActivityFromContext() {
         return (Activity) context;
     }
 
-    ChosenImage ensureMaxWidthAndHeight(int maxWidth, int maxHeight, ChosenImage image) {
+    /**
+     * Downscale the image if it is larger than the given dimensions.
+     *
+     * @return metadata of the image's original path after this call, the resized copy if one was written
+     */
+    ImageMetadata ensureMaxWidthAndHeight(int maxWidth, int maxHeight, ChosenImage image, ImageMetadata metadata,
+                                          MetricsRecorder.Stage stage) {
         try {
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            options.inJustDecodeBounds = true;
-            BufferedInputStream boundsOnlyStream = new BufferedInputStream(new FileInputStream(image.getOriginalPath()));
-            Bitmap bitmap = BitmapFactory.decodeStream(boundsOnlyStream, null, options);
-            if (bitmap != null) {
-                bitmap.recycle();
-            }
-            if (boundsOnlyStream != null) {
-                boundsOnlyStream.close();
-            }
-
-            int imageWidth = options.outWidth;
-            int imageHeight = options.outHeight;
+            int imageWidth = metadata.getBoundsWidth();
+            int imageHeight = metadata.getBoundsHeight();
 
             int[] scaledDimension = BitmapUtils.getScaledDimensions(imageWidth, imageHeight, maxWidth, maxHeight);
             if (!(scaledDimension[0] == imageWidth && scaledDimension[1] == imageHeight)) {
-                ExifInterface originalExifInterface = new ExifInterface(image.getOriginalPath());
-                String originalRotation = originalExifInterface.getAttribute(ExifInterface.TAG_ORIENTATION);
-                BufferedInputStream scaledInputStream = new BufferedInputStream(new FileInputStream(image.getOriginalPath()));
-                options.inJustDecodeBounds = false;
-                bitmap = BitmapFactory.decodeStream(scaledInputStream, null, options);
-                scaledInputStream.close();
-                if (bitmap != null) {
-                    File original = new File(image.getOriginalPath());
-                    image.setTempFile(original.getAbsolutePath());
-                    File file = new File(
-                            (original.getParent() + File.separator + original.getName()
-                                    .replace(".", "-resized.")));
-                    FileOutputStream stream = new FileOutputStream(file);
-
-                    Matrix matrix = new Matrix();
-                    matrix.postScale((float) scaledDimension[0] / imageWidth, (float) scaledDimension[1] / imageHeight);
-
-                    bitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(),
-                            bitmap.getHeight(), matrix, false);
-                    bitmap.compress(Bitmap.CompressFormat.JPEG, 100, stream);
-                    image.setOriginalPath(file.getAbsolutePath());
-                    ExifInterface resizedExifInterface = new ExifInterface(file.getAbsolutePath());
-                    resizedExifInterface.setAttribute(ExifInterface.TAG_ORIENTATION, originalRotation);
-                    resizedExifInterface.saveAttributes();
-                    image.setWidth(scaledDimension[0]);
-                    image.setHeight(scaledDimension[1]);
+                // Decode close to the target size, so memory depends on the output and not on the source
+                int inSampleSize = BitmapUtils.calculateInSampleSize(imageWidth, imageHeight,
+                        scaledDimension[0], scaledDimension[1]);
+                // The output is written upright, EXIF orientation included
+                int orientation = metadata.getOrientation();
+                boolean transposed = BitmapUtils.isTransposed(orientation);
+                int width = transposed ? scaledDimension[1] : scaledDimension[0];
+                int height = transposed ? scaledDimension[0] : scaledDimension[1];
+                throwIfCancelled();
+                long cost = renderer.getDecodeCost(imageWidth, imageHeight, inSampleSize, width, height);
+                governor.acquire(cost, getCancellation());
+                try {
+                    Bitmap scaled = renderer.decodeScaled(image.getOriginalPath(), imageWidth, imageHeight,
+                            inSampleSize, orientation, width, height, stage, getCancellation());
+                    if (scaled != null) {
+                        Bitmap.CompressFormat format = encoder.getFormat(metadata.getMimeType());
+                        File original = new File(image.getOriginalPath());
+                        stage.read(original.length());
+                        image.setTempFile(original.getAbsolutePath());
+                        File file = ImageRenderer.getOutputFile(original, "-resized", format);
+                        addOutput(image, file);
+
+                        FileOutputStream stream = new FileOutputStream(file);
+                        try {
+                            throwIfCancelled();
+                            scaled.compress(format, encoder.getQuality(OutputEncoder.OUTPUT_RESIZED), stream);
+                        } finally {
+                            stream.close();
+                            stage.bitmapReleased(scaled.getByteCount());
+                            BitmapPool.getInstance().put(scaled);
+                        }
+                        stage.written(file.length());
+                        image.setOriginalPath(file.getAbsolutePath());
+                        image.setMimeType(OutputEncoder.getMimeType(format));
+                        image.setExtension(OutputEncoder.getExtension(format));
+                        image.setWidth(width);
+                        image.setHeight(height);
+                        return metadata.forResizedCopy(file.getAbsolutePath(), width, height,
+                                ExifInterface.ORIENTATION_NORMAL);
+                    }
+                } finally {
+                    governor.release(cost);
                 }
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
-        return image;
+        return metadata;
     }
 
-    String downScaleAndSaveImage(String image, int scale) throws PickerException {
-
-        FileOutputStream stream = null;
-        BufferedInputStream bstream = null;
-        Bitmap bitmap;
+    /**
+     * Write the thumbnails of the image, see {@link ImageRenderer#renderThumbnails}. They are deleted if the task
+     * is cancelled before the image is done.
+     */
+    String[] renderThumbnails(int index, ChosenImage image, int[] scales, ImageMetadata metadata)
+            throws PickerException {
+        List<File> written = new ArrayList<>();
         try {
-            BitmapFactory.Options optionsForGettingDimensions = new BitmapFactory.Options();
-            optionsForGettingDimensions.inJustDecodeBounds = true;
-            BufferedInputStream boundsOnlyStream = new BufferedInputStream(new FileInputStream(image));
-            bitmap = BitmapFactory.decodeStream(boundsOnlyStream, null, optionsForGettingDimensions);
-            if (bitmap != null) {
-                bitmap.recycle();
-            }
-            if (boundsOnlyStream != null) {
-                boundsOnlyStream.close();
-            }
-            int w, l;
-            w = optionsForGettingDimensions.outWidth;
-            l = optionsForGettingDimensions.outHeight;
-
-            ExifInterface exif = new ExifInterface(image);
-
-            int orientation = exif.getAttributeInt(
-                    ExifInterface.TAG_ORIENTATION,
-                    ExifInterface.ORIENTATION_NORMAL);
-            int rotate = 0;
-            switch (orientation) {
-                case ExifInterface.ORIENTATION_ROTATE_270:
-                    rotate = -90;
-                    break;
-                case ExifInterface.ORIENTATION_ROTATE_180:
-                    rotate = 180;
-                    break;
-                case ExifInterface.ORIENTATION_ROTATE_90:
-                    rotate = 90;
-                    break;
-            }
-
-            int what = w > l ? w : l;
-
-            BitmapFactory.Options options = new BitmapFactory.Options();
-            if (what > 3000) {
-                options.inSampleSize = scale * 6;
-            } else if (what > 2000 && what <= 3000) {
-                options.inSampleSize = scale * 5;
-            } else if (what > 1500 && what <= 2000) {
-                options.inSampleSize = scale * 4;
-            } else if (what > 1000 && what <= 1500) {
-                options.inSampleSize = scale * 3;
-            } else if (what > 400 && what <= 1000) {
-                options.inSampleSize = scale * 2;
-            } else {
-                options.inSampleSize = scale;
-            }
-
-            options.inJustDecodeBounds = false;
-            // TODO: Sometime the decode File Returns null for some images
-            // For such cases, thumbnails can't be created.
-            // Thumbnails will link to the original file
-            BufferedInputStream scaledInputStream = new BufferedInputStream(new FileInputStream(image));
-            bitmap = BitmapFactory.decodeStream(scaledInputStream, null, options);
-//            verifyBitmap(fileImage, bitmap);
-            scaledInputStream.close();
-            if (bitmap != null) {
-                File original = new File(URLDecoder.decode(image, Charset.defaultCharset().name()));
-                File file = new File(
-                        (original.getParent() + File.separator + original.getName()
-                                .replace(".", "-scale-" + scale + ".")));
-                stream = new FileOutputStream(file);
-                if (rotate != 0) {
-                    Matrix matrix = new Matrix();
-                    matrix.setRotate(rotate);
-                    bitmap = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(),
-                            bitmap.getHeight(), matrix, false);
-                }
-
-                bitmap.compress(Bitmap.CompressFormat.JPEG, 100, stream);
-                return file.getAbsolutePath();
-            }
-
-        } catch (Exception e) {
-            throw new PickerException("Error while generating thumbnail: " + scale + " " + image);
+            return renderer.renderThumbnails(index, image, scales, metadata, metrics, getCancellation(), written);
         } finally {
-            close(bstream);
-            flush(stream);
-            close(stream);
-        }
-
-        return null;
-    }
-
-    String getWidthOfImage(String path) {
-        String width = "";
-        try {
-            ExifInterface exif = new ExifInterface(path);
-            width = exif.getAttribute(ExifInterface.TAG_IMAGE_WIDTH);
-            if (width.equals("0")) {
-                width = Integer.toString(getBitmapImage(path).get().getWidth());
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return width;
-    }
-
-    String getHeightOfImage(String path) {
-        String height = "";
-        try {
-            ExifInterface exif = new ExifInterface(path);
-            height = exif.getAttribute(ExifInterface.TAG_IMAGE_LENGTH);
-            if (height.equals("0")) {
-                height = Integer.toString(getBitmapImage(path).get().getHeight());
+            for (File output : written) {
+                addOutput(image, output);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
-        return height;
-    }
-
-    private SoftReference<Bitmap> getBitmapImage(String path) {
-        SoftReference<Bitmap> bitmap;
-        bitmap = new SoftReference<>(BitmapFactory.decodeFile(Uri.fromFile(new File(path)).getPath()));
-        return bitmap;
     }
 
-    int getOrientation(String image) {
-        int orientation = ExifInterface.ORIENTATION_NORMAL;
-        try {
-            ExifInterface exif = new ExifInterface(image);
-
-            orientation = exif.getAttributeInt(
-                    ExifInterface.TAG_ORIENTATION,
-                    ExifInterface.ORIENTATION_NORMAL);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return orientation;
+    ImageRenderer getRenderer() {
+        return renderer;
     }
 
-    float[] getLatLong(String image) {
-        try {
-            ExifInterface exif = new ExifInterface(image);
+    private static final class Chunk {
+        final int offset;
+        final List<ChosenImage> images;
+        final CountDownLatch done;
 
-            float[] latLong = new float[2];
-            if (exif.getLatLong(latLong))
-                return latLong;
-        } catch (Exception e) {
-            e.printStackTrace();
+        Chunk(int offset, List<ChosenImage> images, CountDownLatch done) {
+            this.offset = offset;
+            this.images = images;
+            this.done = done;
         }
-        return null;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,111 @@
+package com.hanihashemi.imagepicker.core.threads;
+
+import android.graphics.BitmapFactory;
+import android.media.ExifInterface;
+
+import java.io.IOException;
+
+/**
+ * Snapshot of everything the pipeline needs to know about an image file: decoded bounds, EXIF orientation,
+ * location and EXIF dimensions.
+ * <p/>
+ * It is read once per image, with one bounds decode and one EXIF parse, and handed to every stage.
+ */
+final class ImageMetadata {
+    private final String path;
+    private final int boundsWidth;
+    private final int boundsHeight;
+    private final String mimeType;
+    private final int orientation;
+    private final float[] latLong;
+    private final int exifWidth;
+    private final int exifHeight;
+
+    private ImageMetadata(String path, int boundsWidth, int boundsHeight, String mimeType, int orientation,
+                          float[] latLong, int exifWidth, int exifHeight) {
+        this.path = path;
+        this.boundsWidth = boundsWidth;
+        this.boundsHeight = boundsHeight;
+        this.mimeType = mimeType;
+        this.orientation = orientation;
+        this.latLong = latLong;
+        this.exifWidth = exifWidth;
+        this.exifHeight = exifHeight;
+    }
+
+    static ImageMetadata read(String path) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+
+        int orientation = ExifInterface.ORIENTATION_NORMAL;
+        float[] latLong = null;
+        int exifWidth = 0;
+        int exifHeight = 0;
+        try {
+            ExifInterface exif = new ExifInterface(path);
+            orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+            float[] values = new float[2];
+            if (exif.getLatLong(values)) {
+                latLong = values;
+            }
+            exifWidth = exif.getAttributeInt(ExifInterface.TAG_IMAGE_WIDTH, 0);
+            exifHeight = exif.getAttributeInt(ExifInterface.TAG_IMAGE_LENGTH, 0);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return new ImageMetadata(path, options.outWidth, options.outHeight, options.outMimeType, orientation,
+                latLong, exifWidth, exifHeight);
+    }
+
+    /**
+     * Metadata of a resized copy of this image. The copy keeps the mime type and location of the original, so
+     * later outputs are encoded like the original would be.
+     *
+     * @param orientation EXIF orientation of the copy
+     */
+    ImageMetadata forResizedCopy(String path, int width, int height, int orientation) {
+        return new ImageMetadata(path, width, height, mimeType, orientation, latLong, 0, 0);
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    int getBoundsWidth() {
+        return boundsWidth;
+    }
+
+    int getBoundsHeight() {
+        return boundsHeight;
+    }
+
+    String getMimeType() {
+        return mimeType;
+    }
+
+    int getOrientation() {
+        return orientation;
+    }
+
+    /**
+     * @return latitude and longitude, or null if the image has no location
+     */
+    float[] getLatLong() {
+        return latLong;
+    }
+
+    /**
+     * Width as stored in the EXIF data, falling back to the decoded bounds when EXIF doesn't have it
+     */
+    int getWidth() {
+        return exifWidth > 0 ? exifWidth : boundsWidth;
+    }
+
+    /**
+     * Height as stored in the EXIF data, falling back to the decoded bounds when EXIF doesn't have it
+     */
+    int getHeight() {
+        return exifHeight > 0 ? exifHeight : boundsHeight;
+    }
+}
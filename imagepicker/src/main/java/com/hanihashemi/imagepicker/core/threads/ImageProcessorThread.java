@@ -4,17 +4,24 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.res.TypedArray;
 import android.net.Uri;
+import android.os.Environment;
 import android.util.TypedValue;
 
 import com.hanihashemi.imagepicker.R;
+import com.hanihashemi.imagepicker.api.OutputEncoder;
+import com.hanihashemi.imagepicker.api.PipelineStage;
+import com.hanihashemi.imagepicker.api.callbacks.ChunkedImagePickerCallback;
 import com.hanihashemi.imagepicker.api.callbacks.ImagePickerCallback;
+import com.hanihashemi.imagepicker.api.callbacks.StreamingImagePickerCallback;
 import com.hanihashemi.imagepicker.api.entity.ChosenImage;
 import com.hanihashemi.imagepicker.api.exceptions.PickerException;
 import com.hanihashemi.imagepicker.utils.Logger;
 import com.yalantis.ucrop.UCrop;
 
 import java.io.File;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * Created by kbibek on 2/20/16.
@@ -23,17 +30,37 @@ public final class ImageProcessorThread extends FileProcessorThread {
     private final static String TAG = ImageProcessorThread.class.getSimpleName();
 
     private boolean shouldGenerateThumbnails;
+    private boolean shouldGenerateThumbnailsOnDemand;
     private boolean shouldGenerateMetadata;
     private boolean shouldCrop;
     private int maxImageWidth = -1;
     private int maxImageHeight = -1;
     private ImagePickerCallback callback;
     private UCrop.Options options;
+    private CallbackDispatcher dispatcher;
 
     public ImageProcessorThread(Context context, List<ChosenImage> paths, int cacheLocation) {
         super(context, paths, cacheLocation);
     }
 
+    /**
+     * Process the picked URIs in chunks, for a {@link ChunkedImagePickerCallback}
+     */
+    public ImageProcessorThread(Context context, List<String> uris, int chunkSize, int cacheLocation) {
+        super(context, uris, chunkSize, cacheLocation);
+    }
+
+    /**
+     * Image for a picked URI, before it is processed
+     */
+    public static ChosenImage newImage(String uri) {
+        ChosenImage image = new ChosenImage();
+        image.setQueryUri(uri);
+        image.setDirectoryType(Environment.DIRECTORY_PICTURES);
+        image.setType("image");
+        return image;
+    }
+
     /**
      * UCrop options
      */
@@ -49,6 +76,14 @@ public final class ImageProcessorThread extends FileProcessorThread {
         this.shouldGenerateThumbnails = shouldGenerateThumbnails;
     }
 
+    /**
+     * Skip the thumbnails while processing, and render each size the first time it is asked for through
+     * {@link ChosenImage#getThumbnails()}
+     */
+    public void setShouldGenerateThumbnailsOnDemand(boolean shouldGenerateThumbnailsOnDemand) {
+        this.shouldGenerateThumbnailsOnDemand = shouldGenerateThumbnailsOnDemand;
+    }
+
     public void setImagePickerCallback(ImagePickerCallback callback) {
         this.callback = callback;
     }
@@ -63,7 +98,15 @@ public final class ImageProcessorThread extends FileProcessorThread {
 
     @Override
     public void run() {
+        if (callback instanceof StreamingImagePickerCallback && !shouldCrop) {
+            dispatcher = new CallbackDispatcher(getActivityFromContext(),
+                    (StreamingImagePickerCallback) callback, getFileCount(), getTask());
+        }
         super.run();
+        if (isCancelled()) {
+            Logger.d(TAG, "run: Cancelled");
+            return;
+        }
         if (shouldCrop) {
             UCrop.Options alterOptions = new UCrop.Options();
             alterOptions.setActiveWidgetColor(fetchColor(R.attr.colorAccent));
@@ -75,14 +118,78 @@ public final class ImageProcessorThread extends FileProcessorThread {
                     .withOptions(this.options == null ? alterOptions : this.options)
                     .start((Activity) context);
         } else {
-            postProcessImages();
             onDone();
         }
     }
 
+    @Override
+    void postProcessFile(int index, ChosenImage image, int resumedStage) {
+        if (shouldCrop) {
+            return;
+        }
+        try {
+            postProcessImage(index, image, resumedStage);
+            image.setSuccess(true);
+        } catch (PickerException e) {
+            e.printStackTrace();
+            image.setSuccess(false);
+        }
+    }
+
+    @Override
+    String getJournalOptions() {
+        return super.getJournalOptions() + ",maxSize=" + maxImageWidth + "x" + maxImageHeight
+                + ",thumbnails=" + shouldGenerateThumbnails + ",onDemand=" + shouldGenerateThumbnailsOnDemand
+                + ",cacheThumbnails=" + shouldCacheThumbnails + ",crop=" + shouldCrop;
+    }
+
+    @Override
+    void onFileProcessed(int index, ChosenImage image) {
+        if (dispatcher != null) {
+            dispatcher.imageReady(index, image);
+        }
+    }
+
+    @Override
+    ChosenImage createFile(String uri) {
+        return newImage(uri);
+    }
+
+    @Override
+    void onChunkProcessed(int offset, final List<ChosenImage> chunk) {
+        if (!(callback instanceof ChunkedImagePickerCallback)) {
+            return;
+        }
+        // The next chunk is only processed once the callback is done with this one
+        final CountDownLatch delivered = new CountDownLatch(1);
+        getActivityFromContext().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!isCancelled()) {
+                        callback.onImagesChosen(chunk);
+                    }
+                } finally {
+                    delivered.countDown();
+                }
+            }
+        });
+        await(delivered);
+    }
+
     private void onDone() {
+        if (isChunked()) {
+            onChunksDone();
+            return;
+        }
+        // Not delivered when the task was cancelled in the meantime
+        if (getTask() != null && !getTask().complete((List<ChosenImage>) files)) {
+            return;
+        }
         try {
-            if (callback != null) {
+            if (dispatcher != null) {
+                dispatcher.complete((List<ChosenImage>) files);
+            } else if (callback != null) {
                 getActivityFromContext().runOnUiThread(new Runnable() {
                     @Override
                     public void run() {
@@ -90,63 +197,98 @@ public final class ImageProcessorThread extends FileProcessorThread {
                     }
                 });
             }
+            // A chunked callback whose batch wasn't processed in chunks, e.g. to be cropped
+            onAllImagesChosen(files.size());
         } catch (NullPointerException e) {
             e.printStackTrace();
         }
     }
 
-    private void postProcessImages() {
-        for (ChosenImage image : files) {
-            try {
-                postProcessImage(image);
-                image.setSuccess(true);
-            } catch (PickerException e) {
-                e.printStackTrace();
-                image.setSuccess(false);
-            }
+    // The chunks were delivered already, nothing holds the images anymore
+    private void onChunksDone() {
+        if (getTask() != null && !getTask().complete(Collections.<ChosenImage>emptyList())) {
+            return;
         }
+        onAllImagesChosen(getFileCount());
+    }
+
+    // Posted after the images, so it arrives last
+    private void onAllImagesChosen(final int total) {
+        if (!(callback instanceof ChunkedImagePickerCallback)) {
+            return;
+        }
+        getActivityFromContext().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (!isCancelled()) {
+                    ((ChunkedImagePickerCallback) callback).onAllImagesChosen(total);
+                }
+            }
+        });
     }
 
-    private ChosenImage postProcessImage(ChosenImage image) throws PickerException {
-        if (maxImageWidth != -1 && maxImageHeight != -1) {
-            image = ensureMaxWidthAndHeight(maxImageWidth, maxImageHeight, image);
+    private ChosenImage postProcessImage(int index, ChosenImage image, int resumedStage) throws PickerException {
+        boolean shouldResize = maxImageWidth != -1 && maxImageHeight != -1;
+        if (!shouldResize && !shouldGenerateMetadata && !shouldGenerateThumbnails) {
+            return image;
+        }
+        MetricsRecorder.Stage stage = metrics.startStage(index, image, PipelineStage.METADATA);
+        ImageMetadata metadata = ImageMetadata.read(image.getOriginalPath());
+        stage.finish();
+        if (shouldResize && resumedStage < ProcessingJournal.RESIZED) {
+            stage = metrics.startStage(index, image, PipelineStage.RESIZE);
+            try {
+                metadata = ensureMaxWidthAndHeight(maxImageWidth, maxImageHeight, image, metadata, stage);
+            } finally {
+                stage.finish();
+            }
+            recordStage(index, ProcessingJournal.RESIZED, image);
         }
         Logger.d(TAG, "postProcessImage: " + image.getMimeType());
         if (shouldGenerateMetadata) {
             try {
-                image = generateMetadata(image);
+                image = generateMetadata(image, metadata);
             } catch (Exception e) {
                 Logger.d(TAG, "postProcessImage: Error generating metadata");
                 e.printStackTrace();
             }
         }
         if (shouldGenerateThumbnails) {
-            image = generateThumbnails(image);
+            if (!shouldGenerateThumbnailsOnDemand && resumedStage < ProcessingJournal.THUMBNAILED) {
+                image = generateThumbnails(index, image, metadata);
+                recordStage(index, ProcessingJournal.THUMBNAILED, image);
+            }
+            image.setThumbnails(new LazyThumbnails(getRenderer(), getCancellation(), index, image, metadata));
         }
         Logger.d(TAG, "postProcessImage: " + image);
         return image;
     }
 
-    private ChosenImage generateMetadata(ChosenImage image) {
-        float[] latLong = getLatLong(image.getOriginalPath());
+    private ChosenImage generateMetadata(ChosenImage image, ImageMetadata metadata) {
+        float[] latLong = metadata.getLatLong();
         if (latLong != null) {
             image.setLat(latLong[0]);
             image.setLng(latLong[1]);
         }
-        image.setWidth(Integer.parseInt(getWidthOfImage(image.getOriginalPath())));
-        image.setHeight(Integer.parseInt(getHeightOfImage(image.getOriginalPath())));
-        image.setOrientation(getOrientation(image.getOriginalPath()));
+        image.setWidth(metadata.getWidth());
+        image.setHeight(metadata.getHeight());
+        image.setOrientation(metadata.getOrientation());
         return image;
     }
 
-    private ChosenImage generateThumbnails(ChosenImage image) throws PickerException {
-        String thumbnailBig = downScaleAndSaveImage(image.getOriginalPath(), THUMBNAIL_BIG);
-        image.setThumbnailPath(thumbnailBig);
-        String thumbnailSmall = downScaleAndSaveImage(image.getOriginalPath(), THUMBNAIL_SMALL);
-        image.setThumbnailSmallPath(thumbnailSmall);
+    private ChosenImage generateThumbnails(int index, ChosenImage image, ImageMetadata metadata)
+            throws PickerException {
+        int[] scales = {THUMBNAIL_BIG, THUMBNAIL_SMALL};
+        String[] thumbnails = renderThumbnails(index, image, scales, metadata);
+        image.setThumbnailPath(thumbnails[0]);
+        image.setThumbnailSmallPath(thumbnails[1]);
         return image;
     }
 
+    public void setShouldCacheThumbnails(boolean shouldCacheThumbnails) {
+        this.shouldCacheThumbnails = shouldCacheThumbnails;
+    }
+
     public void setShouldGenerateMetadata(boolean shouldGenerateMetadata) {
         this.shouldGenerateMetadata = shouldGenerateMetadata;
     }
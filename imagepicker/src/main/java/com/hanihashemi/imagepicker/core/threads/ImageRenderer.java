@@ -0,0 +1,472 @@
+package com.hanihashemi.imagepicker.core.threads;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.media.ExifInterface;
+import android.os.Environment;
+
+import com.hanihashemi.imagepicker.api.OutputEncoder;
+import com.hanihashemi.imagepicker.api.PipelineStage;
+import com.hanihashemi.imagepicker.api.entity.ChosenImage;
+import com.hanihashemi.imagepicker.api.exceptions.PickerException;
+import com.hanihashemi.imagepicker.core.cache.ThumbnailCache;
+import com.hanihashemi.imagepicker.utils.BitmapPool;
+import com.hanihashemi.imagepicker.utils.BitmapUtils;
+import com.hanihashemi.imagepicker.utils.CancellationToken;
+import com.hanihashemi.imagepicker.utils.FileUtils;
+import com.hanihashemi.imagepicker.utils.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static com.hanihashemi.imagepicker.utils.StreamHelper.close;
+import static com.hanihashemi.imagepicker.utils.StreamHelper.flush;
+
+/**
+ * Decodes the picked images scaled and turned upright, and writes their thumbnails.
+ * <p/>
+ * Holds nothing but the application context and the output options of a batch, so the {@link LazyThumbnails} of
+ * delivered images keep one instead of the processing thread, with its activity and the batch.
+ */
+final class ImageRenderer {
+    private final static String TAG = ImageRenderer.class.getSimpleName();
+    private final static String THUMBNAIL_CACHE_DIRECTORY = ".thumbnails";
+    private final static int FINGERPRINT_SAMPLE_BYTES = 64 * 1024;
+    // Memory for one band of a tiled decode
+    private final static long BAND_BYTES = 4 * 1024 * 1024;
+
+    private final Context context;
+    private final OutputEncoder encoder;
+    private final int cacheLocation;
+    private final Executor executor;
+    private final MemoryGovernor governor;
+    private final long maxDecodeBytes;
+    private final boolean shouldCacheThumbnails;
+
+    /**
+     * @param maxDecodeBytes largest bitmap decoded in one go, 0 for an eighth of the heap
+     */
+    ImageRenderer(Context context, OutputEncoder encoder, int cacheLocation, Executor executor,
+                  MemoryGovernor governor, long maxDecodeBytes, boolean shouldCacheThumbnails) {
+        this.context = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        this.encoder = encoder;
+        this.cacheLocation = cacheLocation;
+        this.executor = executor;
+        this.governor = governor;
+        this.maxDecodeBytes = maxDecodeBytes;
+        this.shouldCacheThumbnails = shouldCacheThumbnails;
+    }
+
+    /**
+     * Pool the images of the batch are processed on
+     */
+    Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Write the thumbnails of the image for the given scales, or find them in the thumbnail cache when it is used
+     *
+     * @param written gets the files written for the image, may be null
+     * @return paths of the thumbnails, in the order of the scales, null where the image couldn't be decoded
+     */
+    String[] renderThumbnails(int index, ChosenImage image, int[] scales, ImageMetadata metadata,
+                              MetricsRecorder metrics, CancellationToken cancellation, List<File> written)
+            throws PickerException {
+        throwIfCancelled(cancellation);
+        if (shouldCacheThumbnails) {
+            String[] thumbnails = getCachedThumbnails(index, image, scales, metadata, metrics, cancellation, written);
+            if (thumbnails != null) {
+                return thumbnails;
+            }
+        }
+        return downScaleAndSaveImages(index, image, scales, getThumbnailFiles(image.getOriginalPath(), scales,
+                metadata), metadata, metrics, cancellation, written);
+    }
+
+    private String[] getCachedThumbnails(int index, ChosenImage image, int[] scales, ImageMetadata metadata,
+                                         MetricsRecorder metrics, CancellationToken cancellation,
+                                         List<File> written) throws PickerException {
+        String fingerprint;
+        try {
+            fingerprint = FileUtils.getContentFingerprint(new File(image.getOriginalPath()), FINGERPRINT_SAMPLE_BYTES);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        ThumbnailCache cache = ThumbnailCache.getInstance();
+        File directory = new File(FileProcessorThread.getTargetDirectory(context, cacheLocation,
+                Environment.DIRECTORY_PICTURES), THUMBNAIL_CACHE_DIRECTORY);
+        String[] specs = new String[scales.length];
+        for (int i = 0; i < scales.length; i++) {
+            specs[i] = encoder.getSpec(getThumbnailOutput(scales[i]), metadata.getMimeType());
+        }
+        String[] thumbnails = cache.get(directory, fingerprint, scales, specs);
+        if (thumbnails == null) {
+            thumbnails = downScaleAndSaveImages(index, image, scales,
+                    cache.getFiles(directory, fingerprint, scales, specs), metadata, metrics, cancellation, written);
+        }
+        return thumbnails;
+    }
+
+    /**
+     * Generate thumbnails for all the given scales, in increasing order (e.g.
+     * {@link FileProcessorThread#THUMBNAIL_BIG}, {@link FileProcessorThread#THUMBNAIL_SMALL}).
+     * <p/>
+     * The image is decoded only once, and scaled and turned upright in one transform for the first scale. Every
+     * next thumbnail is scaled down from the previous one in memory.
+     *
+     * @param index   position of the image in the batch, for the metrics
+     * @param targets files the thumbnails are written to, one per scale
+     * @param written gets the targets which didn't exist before, may be null
+     * @return paths of the thumbnails, in the order of the scales
+     */
+    private String[] downScaleAndSaveImages(int index, ChosenImage file, int[] scales, File[] targets,
+                                            ImageMetadata metadata, MetricsRecorder metrics,
+                                            CancellationToken cancellation, List<File> written)
+            throws PickerException {
+        String image = file.getOriginalPath();
+        String[] paths = new String[scales.length];
+        Bitmap bitmap = null;
+        // Bytes admitted by the governor, released once the thumbnails are written
+        long cost = -1;
+        MetricsRecorder.Stage stage = metrics.startStage(index, file, PipelineStage.THUMBNAIL, scales[0]);
+        try {
+            int w, l;
+            w = metadata.getBoundsWidth();
+            l = metadata.getBoundsHeight();
+
+            int orientation = metadata.getOrientation();
+            Bitmap.CompressFormat format = encoder.getFormat(metadata.getMimeType());
+
+            int inSampleSize = scales[0] * getThumbnailSampleFactor(w > l ? w : l);
+            throwIfCancelled(cancellation);
+
+            // TODO: Sometime the decode File Returns null for some images
+            // For such cases, thumbnails can't be created.
+            // Thumbnails will link to the original file
+            int width = Math.max(1, Math.round((float) w / inSampleSize));
+            int height = Math.max(1, Math.round((float) l / inSampleSize));
+            boolean transposed = BitmapUtils.isTransposed(orientation);
+            long estimate = getDecodeCost(w, l, inSampleSize, width, height);
+            governor.acquire(estimate, cancellation);
+            cost = estimate;
+            bitmap = decodeScaled(image, w, l, inSampleSize, orientation, transposed ? height : width,
+                    transposed ? width : height, stage, cancellation);
+            if (bitmap == null) {
+                return paths;
+            }
+            stage.read(new File(image).length());
+
+            for (int i = 0; i < scales.length; i++) {
+                throwIfCancelled(cancellation);
+                if (i > 0) {
+                    stage.finish();
+                    stage = metrics.startStage(index, file, PipelineStage.THUMBNAIL, scales[i]);
+                    stage.bitmapCarried(bitmap.getByteCount());
+                    float ratio = (float) scales[i - 1] / scales[i];
+                    bitmap = transform(bitmap, ExifInterface.ORIENTATION_NORMAL,
+                            Math.max(1, Math.round(bitmap.getWidth() * ratio)),
+                            Math.max(1, Math.round(bitmap.getHeight() * ratio)), stage);
+                }
+                if (written != null && !targets[i].exists()) {
+                    written.add(targets[i]);
+                }
+                paths[i] = saveThumbnail(bitmap, targets[i], format,
+                        encoder.getQuality(getThumbnailOutput(scales[i])));
+                stage.written(targets[i].length());
+            }
+        } catch (Exception e) {
+            throw new PickerException("Error while generating thumbnail: " + Arrays.toString(scales) + " " + image);
+        } finally {
+            if (bitmap != null) {
+                stage.bitmapReleased(bitmap.getByteCount());
+                BitmapPool.getInstance().put(bitmap);
+            }
+            if (cost >= 0) {
+                governor.release(cost);
+            }
+            stage.finish();
+        }
+        return paths;
+    }
+
+    /**
+     * Decode the image straight to the given size, turned upright. Images which would take more than the decode
+     * budget with the given sample size are decoded in bands.
+     *
+     * @param width  width of the output, after the orientation is applied
+     * @param height height of the output, after the orientation is applied
+     * @return a pooled bitmap of the output size, or null if the image can't be decoded
+     */
+    Bitmap decodeScaled(String path, int sourceWidth, int sourceHeight, int inSampleSize, int orientation,
+                        int width, int height, MetricsRecorder.Stage stage, CancellationToken cancellation)
+            throws IOException, PickerException {
+        if (BitmapUtils.getDecodedBytes(sourceWidth, sourceHeight, inSampleSize) > getMaxDecodeBytes()) {
+            Bitmap bitmap = decodeTiled(path, inSampleSize, orientation, width, height, stage, cancellation);
+            if (bitmap != null) {
+                return bitmap;
+            }
+            // Not a format the region decoder supports, try it whole
+        }
+        Bitmap bitmap;
+        try {
+            bitmap = decodeSampled(path, sourceWidth, sourceHeight, inSampleSize);
+        } catch (OutOfMemoryError e) {
+            Logger.d(TAG, "Out of memory decoding " + path + ", decoding it in bands");
+            BitmapPool.getInstance().clear();
+            bitmap = decodeTiled(path, inSampleSize, orientation, width, height, stage, cancellation);
+            if (bitmap == null) {
+                throw new IOException("Not enough memory to decode " + path);
+            }
+            return bitmap;
+        }
+        if (bitmap == null) {
+            return null;
+        }
+        stage.bitmapAllocated(bitmap.getByteCount());
+        // The decoder only samples by powers of two, the transform scales the rest of the way
+        boolean upright = orientation == ExifInterface.ORIENTATION_NORMAL
+                || orientation == ExifInterface.ORIENTATION_UNDEFINED;
+        if (!upright || bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            bitmap = transform(bitmap, orientation, width, height, stage);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decode the image one horizontal band at a time, and draw every band scaled and turned upright into the
+     * output. Only the output and one band are in memory at any time, whatever the resolution of the image.
+     *
+     * @return a pooled bitmap of the output size, or null if the region decoder doesn't support the format
+     */
+    private Bitmap decodeTiled(String path, int inSampleSize, int orientation, int width, int height,
+                               MetricsRecorder.Stage stage, CancellationToken cancellation)
+            throws IOException, PickerException {
+        BitmapRegionDecoder decoder;
+        try {
+            decoder = BitmapRegionDecoder.newInstance(path, false);
+        } catch (IOException e) {
+            return null;
+        }
+        if (decoder == null) {
+            return null;
+        }
+        BitmapPool pool = BitmapPool.getInstance();
+        Bitmap target = null;
+        try {
+            int sourceWidth = decoder.getWidth();
+            int sourceHeight = decoder.getHeight();
+            target = pool.get(width, height, Bitmap.Config.ARGB_8888);
+            stage.bitmapAllocated(target.getByteCount());
+            float[] values = BitmapUtils.getTransformValues(orientation, sourceWidth, sourceHeight, width, height);
+            Matrix orient = new Matrix();
+            orient.setValues(values);
+            Canvas canvas = new Canvas(target);
+            Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = inSampleSize;
+            int bandHeight = BitmapUtils.getBandHeight(sourceWidth, inSampleSize, BAND_BYTES);
+            // Every band is decoded with a sampled row of its neighbours, so the filtering leaves no seams
+            int overlap = Math.max(1, inSampleSize);
+            for (int top = 0; top < sourceHeight; top += bandHeight) {
+                throwIfCancelled(cancellation);
+                int bottom = Math.min(sourceHeight, top + bandHeight);
+                int decodeTop = Math.max(0, top - overlap);
+                int decodeBottom = Math.min(sourceHeight, bottom + overlap);
+                Bitmap band = decoder.decodeRegion(new Rect(0, decodeTop, sourceWidth, decodeBottom), options);
+                if (band == null) {
+                    throw new IOException("Couldn't decode rows " + top + "-" + bottom + " of " + path);
+                }
+                stage.bitmapAllocated(band.getByteCount());
+                try {
+                    Matrix matrix = new Matrix();
+                    matrix.setValues(values);
+                    matrix.preTranslate(0, decodeTop);
+                    matrix.preScale((float) sourceWidth / band.getWidth(),
+                            (float) (decodeBottom - decodeTop) / band.getHeight());
+                    RectF clip = new RectF(0, top, sourceWidth, bottom);
+                    orient.mapRect(clip);
+                    canvas.save();
+                    canvas.clipRect(clip);
+                    canvas.drawBitmap(band, matrix, paint);
+                    canvas.restore();
+                } finally {
+                    stage.bitmapReleased(band.getByteCount());
+                    band.recycle();
+                }
+            }
+            Bitmap decoded = target;
+            target = null;
+            return decoded;
+        } finally {
+            if (target != null) {
+                stage.bitmapReleased(target.getByteCount());
+                pool.put(target);
+            }
+            decoder.recycle();
+        }
+    }
+
+    /**
+     * Estimate of the bytes a {@link #decodeScaled} allocates: the sampled image and the output, or the output and
+     * one band when the image is decoded in bands
+     */
+    long getDecodeCost(int sourceWidth, int sourceHeight, int inSampleSize, int width, int height) {
+        long decoded = BitmapUtils.getDecodedBytes(sourceWidth, sourceHeight, inSampleSize);
+        long output = 4L * width * height;
+        return decoded > getMaxDecodeBytes() ? output + BAND_BYTES : decoded + output;
+    }
+
+    private long getMaxDecodeBytes() {
+        return maxDecodeBytes > 0 ? maxDecodeBytes : Runtime.getRuntime().maxMemory() / 8;
+    }
+
+    /**
+     * Decode the image with the given sample size, reusing a pooled bitmap when one fits
+     *
+     * @return the decoded bitmap, which is mutable, or null if the image can't be decoded
+     */
+    private Bitmap decodeSampled(String path, int width, int height, int inSampleSize) throws IOException {
+        BitmapPool pool = BitmapPool.getInstance();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = inSampleSize;
+        options.inMutable = true;
+        int[] decoded = BitmapUtils.getDecodedDimensions(width, height, inSampleSize);
+        options.inBitmap = pool.getForDecode(decoded[0], decoded[1], inSampleSize, Bitmap.Config.ARGB_8888);
+        Bitmap bitmap;
+        try {
+            bitmap = decode(path, options);
+        } catch (IllegalArgumentException e) {
+            // The decoder couldn't use the pooled bitmap after all
+            pool.put(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = decode(path, options);
+        }
+        if (bitmap == null && options.inBitmap != null) {
+            pool.put(options.inBitmap);
+        }
+        return bitmap;
+    }
+
+    private Bitmap decode(String path, BitmapFactory.Options options) throws IOException {
+        BufferedInputStream stream = new BufferedInputStream(new FileInputStream(path));
+        try {
+            return BitmapFactory.decodeStream(stream, null, options);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Default location of the thumbnails: next to the image, with a -scale-N suffix
+     */
+    private File[] getThumbnailFiles(String image, int[] scales, ImageMetadata metadata) throws PickerException {
+        try {
+            File original = new File(URLDecoder.decode(image, Charset.defaultCharset().name()));
+            Bitmap.CompressFormat format = encoder.getFormat(metadata.getMimeType());
+            File[] files = new File[scales.length];
+            for (int i = 0; i < scales.length; i++) {
+                files[i] = getOutputFile(original, "-scale-" + scales[i], format);
+            }
+            return files;
+        } catch (IOException e) {
+            throw new PickerException(e);
+        }
+    }
+
+    /**
+     * Which {@link OutputEncoder} output a thumbnail scale is
+     */
+    static int getThumbnailOutput(int scale) {
+        return scale == FileProcessorThread.THUMBNAIL_SMALL ? OutputEncoder.OUTPUT_THUMBNAIL_SMALL : OutputEncoder.OUTPUT_THUMBNAIL;
+    }
+
+    // Next to the original, with the suffix before the extension of the format
+    static File getOutputFile(File original, String suffix, Bitmap.CompressFormat format) {
+        String name = original.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            name = name.substring(0, dot);
+        }
+        return new File(original.getParent(), name + suffix + OutputEncoder.getExtension(format));
+    }
+
+    /**
+     * Scale the source and turn it upright in a single draw, into a pooled bitmap of the output size. The source
+     * goes back to the pool.
+     *
+     * @param width  width of the output, after the orientation is applied
+     * @param height height of the output, after the orientation is applied
+     */
+    private Bitmap transform(Bitmap source, int orientation, int width, int height, MetricsRecorder.Stage stage) {
+        BitmapPool pool = BitmapPool.getInstance();
+        Bitmap target = pool.get(width, height, Bitmap.Config.ARGB_8888);
+        stage.bitmapAllocated(target.getByteCount());
+        Matrix matrix = new Matrix();
+        matrix.setValues(BitmapUtils.getTransformValues(orientation, source.getWidth(), source.getHeight(),
+                width, height));
+        new Canvas(target).drawBitmap(source, matrix, new Paint(Paint.FILTER_BITMAP_FLAG));
+        stage.bitmapReleased(source.getByteCount());
+        pool.put(source);
+        return target;
+    }
+
+    // Written to a temporary file first, so nobody ever sees a half written thumbnail
+    private String saveThumbnail(Bitmap bitmap, File file, Bitmap.CompressFormat format, int quality)
+            throws PickerException {
+        File temp = new File(file.getPath() + ".tmp-" + Thread.currentThread().getId());
+        FileOutputStream stream = null;
+        try {
+            stream = new FileOutputStream(temp);
+            bitmap.compress(format, quality, stream);
+        } catch (IOException e) {
+            throw new PickerException(e);
+        } finally {
+            flush(stream);
+            close(stream);
+        }
+        if (!temp.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw new PickerException("Could not save thumbnail to " + file);
+        }
+        return file.getAbsolutePath();
+    }
+
+    private int getThumbnailSampleFactor(int what) {
+        if (what > 3000) {
+            return 6;
+        } else if (what > 2000) {
+            return 5;
+        } else if (what > 1500) {
+            return 4;
+        } else if (what > 1000) {
+            return 3;
+        } else if (what > 400) {
+            return 2;
+        }
+        return 1;
+    }
+
+    private static void throwIfCancelled(CancellationToken cancellation) throws PickerException {
+        if (cancellation.isCancelled()) {
+            throw new PickerException("Cancelled");
+        }
+    }
+}
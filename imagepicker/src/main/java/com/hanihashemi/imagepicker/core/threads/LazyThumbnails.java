@@ -0,0 +1,125 @@
+package com.hanihashemi.imagepicker.core.threads;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.hanihashemi.imagepicker.api.ThumbnailHandle;
+import com.hanihashemi.imagepicker.api.callbacks.ThumbnailCallback;
+import com.hanihashemi.imagepicker.api.entity.ChosenImage;
+import com.hanihashemi.imagepicker.api.exceptions.PickerException;
+import com.hanihashemi.imagepicker.utils.CancellationToken;
+
+/**
+ * {@link ThumbnailHandle} which renders every size the first time it is asked for, on the pool the image was
+ * processed on.
+ * <p/>
+ * Each size has its own lock, so parallel requests for the same size render it once and the others wait for it.
+ * Thumbnails that were rendered eagerly are simply found on the image. The handle only keeps the
+ * {@link ImageRenderer} of the batch, never the processing thread or the activity it was started from.
+ */
+final class LazyThumbnails implements ThumbnailHandle {
+    private final static Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final ImageRenderer renderer;
+    // The task the image was picked with, nothing is rendered once it is cancelled
+    private final CancellationToken cancellation;
+    private final int index;
+    private final ChosenImage image;
+    private final ImageMetadata metadata;
+    // Held while a size is rendered, peek() never takes them
+    private final Object bigLock = new Object();
+    private final Object smallLock = new Object();
+    private volatile String bigPath;
+    private volatile String smallPath;
+
+    LazyThumbnails(ImageRenderer renderer, CancellationToken cancellation, int index, ChosenImage image,
+                   ImageMetadata metadata) {
+        this.renderer = renderer;
+        this.cancellation = cancellation;
+        this.index = index;
+        this.image = image;
+        this.metadata = metadata;
+        this.bigPath = image.getThumbnailPath();
+        this.smallPath = image.getThumbnailSmallPath();
+    }
+
+    @Override
+    public String peek(int size) {
+        checkSize(size);
+        return size == SIZE_SMALL ? smallPath : bigPath;
+    }
+
+    @Override
+    public void get(final int size, final ThumbnailCallback callback) {
+        String path = peek(size);
+        if (path != null) {
+            deliver(size, path, null, callback);
+            return;
+        }
+        renderer.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    deliver(size, await(size), null, callback);
+                } catch (PickerException e) {
+                    e.printStackTrace();
+                    deliver(size, null, e.getMessage(), callback);
+                }
+            }
+        });
+    }
+
+    @Override
+    public String await(int size) throws PickerException {
+        synchronized (getLock(size)) {
+            if (size == SIZE_SMALL) {
+                if (smallPath == null) {
+                    String path = render(FileProcessorThread.THUMBNAIL_SMALL);
+                    image.setThumbnailSmallPath(path);
+                    smallPath = path;
+                }
+                return smallPath;
+            }
+            if (bigPath == null) {
+                String path = render(FileProcessorThread.THUMBNAIL_BIG);
+                image.setThumbnailPath(path);
+                bigPath = path;
+            }
+            return bigPath;
+        }
+    }
+
+    // The batch is over, the figures of a single thumbnail aren't reported
+    private String render(int scale) throws PickerException {
+        String[] thumbnails = renderer.renderThumbnails(index, image, new int[]{scale}, metadata,
+                new MetricsRecorder(null), cancellation, null);
+        if (thumbnails[0] == null) {
+            throw new PickerException("Couldn't decode " + image.getOriginalPath());
+        }
+        return thumbnails[0];
+    }
+
+    private Object getLock(int size) {
+        checkSize(size);
+        return size == SIZE_SMALL ? smallLock : bigLock;
+    }
+
+    private static void checkSize(int size) {
+        if (size != SIZE_BIG && size != SIZE_SMALL) {
+            throw new IllegalArgumentException("Unknown thumbnail size: " + size);
+        }
+    }
+
+    private void deliver(final int size, final String path, final String error, final ThumbnailCallback callback) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (path != null) {
+                    callback.onThumbnailReady(image, size, path);
+                } else {
+                    callback.onError(error);
+                }
+            }
+        });
+    }
+}
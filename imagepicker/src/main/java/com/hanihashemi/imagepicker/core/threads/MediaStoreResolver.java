@@ -0,0 +1,210 @@
+package com.hanihashemi.imagepicker.core.threads;
+
+import android.Manifest;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+import android.provider.MediaStore;
+import android.support.v4.content.ContextCompat;
+
+import com.hanihashemi.imagepicker.api.entity.ChosenImage;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Looks up the MediaStore rows of all the picked URIs of a batch at once.
+ * <p/>
+ * Plain MediaStore URIs (<code>content://media/external/images/media/42</code>) and media documents
+ * (<code>content://com.android.providers.media.documents/document/image:42</code>) are grouped by the collection
+ * they belong to. Every group is fetched with one <code>_id IN (...)</code> query per chunk of ids, instead of one
+ * query per URI. URIs of other providers are left alone and still resolved one by one.
+ * <p/>
+ * Querying a whole collection needs {@link Manifest.permission#READ_EXTERNAL_STORAGE}, the grants of the picked
+ * URIs don't cover it. Without the permission nothing is queried, and every URI is resolved one by one.
+ * <p/>
+ * Batches processed in chunks add the rows of every chunk before it is processed, and remove them once it is done.
+ */
+final class MediaStoreResolver {
+    private final static String MEDIA_AUTHORITY = "media";
+    private final static String MEDIA_DOCUMENTS_AUTHORITY = "com.android.providers.media.documents";
+    // SQLite allows 999 parameters per statement
+    private final static int CHUNK_SIZE = 500;
+    private final static String[] PROJECTION = {BaseColumns._ID, MediaStore.MediaColumns.DATA,
+            MediaStore.MediaColumns.DISPLAY_NAME, MediaStore.MediaColumns.MIME_TYPE, MediaStore.MediaColumns.SIZE};
+
+    // Read by the workers of a chunk while the next one is added
+    private final Map<String, Row> rows = new ConcurrentHashMap<>();
+    private volatile int queries;
+
+    /**
+     * Query the rows of all the MediaStore URIs among the images, if the app may read the collections
+     */
+    void add(Context context, List<? extends ChosenImage> images) {
+        if (ContextCompat.checkSelfPermission(context, Manifest.permission.READ_EXTERNAL_STORAGE)
+                != PackageManager.PERMISSION_GRANTED) {
+            return;
+        }
+        ContentResolver resolver = context.getContentResolver();
+        // Collection -> id -> URIs picked for it
+        Map<Uri, Map<String, List<String>>> groups = new LinkedHashMap<>();
+        for (ChosenImage image : images) {
+            String queryUri = image.getQueryUri();
+            if (queryUri == null || !queryUri.startsWith("content://")) {
+                continue;
+            }
+            Uri uri = Uri.parse(queryUri);
+            Uri collection = getCollection(uri);
+            String id = collection != null ? getId(uri) : null;
+            if (id == null) {
+                continue;
+            }
+            Map<String, List<String>> ids = groups.get(collection);
+            if (ids == null) {
+                ids = new LinkedHashMap<>();
+                groups.put(collection, ids);
+            }
+            List<String> uris = ids.get(id);
+            if (uris == null) {
+                uris = new ArrayList<>();
+                ids.put(id, uris);
+            }
+            uris.add(queryUri);
+        }
+        for (Map.Entry<Uri, Map<String, List<String>>> group : groups.entrySet()) {
+            List<String> ids = new ArrayList<>(group.getValue().keySet());
+            for (int start = 0; start < ids.size(); start += CHUNK_SIZE) {
+                List<String> chunk = ids.subList(start, Math.min(ids.size(), start + CHUNK_SIZE));
+                query(resolver, group.getKey(), chunk, group.getValue());
+            }
+        }
+    }
+
+    /**
+     * Forget the rows of images which are done
+     */
+    void remove(List<? extends ChosenImage> images) {
+        for (ChosenImage image : images) {
+            if (image.getQueryUri() != null) {
+                rows.remove(image.getQueryUri());
+            }
+        }
+    }
+
+    /**
+     * @return the row of the picked URI, or null if it isn't a MediaStore URI or wasn't found
+     */
+    Row get(String queryUri) {
+        return rows.get(queryUri);
+    }
+
+    /**
+     * Number of queries that were run
+     */
+    int getQueryCount() {
+        return queries;
+    }
+
+    private void query(ContentResolver resolver, Uri collection, List<String> ids, Map<String, List<String>> uris) {
+        StringBuilder selection = new StringBuilder(BaseColumns._ID).append(" IN (");
+        for (int i = 0; i < ids.size(); i++) {
+            selection.append(i == 0 ? "?" : ",?");
+        }
+        selection.append(")");
+        Cursor cursor = null;
+        try {
+            queries++;
+            cursor = resolver.query(collection, PROJECTION, selection.toString(),
+                    ids.toArray(new String[ids.size()]), null);
+            if (cursor == null) {
+                return;
+            }
+            while (cursor.moveToNext()) {
+                List<String> picked = uris.get(cursor.getString(0));
+                if (picked == null) {
+                    continue;
+                }
+                Row row = new Row(cursor.getString(1), cursor.getString(2), cursor.getString(3),
+                        cursor.isNull(4) ? -1 : cursor.getLong(4));
+                for (String uri : picked) {
+                    rows.put(uri, row);
+                }
+            }
+        } catch (Exception e) {
+            // The URIs of this chunk are resolved one by one instead
+            e.printStackTrace();
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    private static Uri getCollection(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (MEDIA_AUTHORITY.equals(uri.getAuthority())) {
+            // e.g. external/images/media/42
+            if (segments.size() < 2) {
+                return null;
+            }
+            String path = uri.getPath();
+            return Uri.parse(uri.getScheme() + "://" + MEDIA_AUTHORITY
+                    + path.substring(0, path.lastIndexOf('/')));
+        }
+        if (MEDIA_DOCUMENTS_AUTHORITY.equals(uri.getAuthority())) {
+            // document/image:42
+            if (segments.size() != 2 || !"document".equals(segments.get(0))) {
+                return null;
+            }
+            String type = segments.get(1).split(":")[0];
+            if ("image".equals(type)) {
+                return MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
+            } else if ("video".equals(type)) {
+                return MediaStore.Video.Media.EXTERNAL_CONTENT_URI;
+            } else if ("audio".equals(type)) {
+                return MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
+            }
+        }
+        return null;
+    }
+
+    private static String getId(Uri uri) {
+        String id = uri.getLastPathSegment();
+        if (MEDIA_DOCUMENTS_AUTHORITY.equals(uri.getAuthority())) {
+            id = id.substring(id.indexOf(':') + 1);
+        }
+        if (id.isEmpty()) {
+            return null;
+        }
+        for (int i = 0; i < id.length(); i++) {
+            if (!Character.isDigit(id.charAt(i))) {
+                return null;
+            }
+        }
+        return id;
+    }
+
+    /**
+     * The columns of a MediaStore row, any of which may be null
+     */
+    static final class Row {
+        final String data;
+        final String displayName;
+        final String mimeType;
+        // -1 if unknown
+        final long size;
+
+        Row(String data, String displayName, String mimeType, long size) {
+            this.data = data;
+            this.displayName = displayName;
+            this.mimeType = mimeType;
+            this.size = size;
+        }
+    }
+}
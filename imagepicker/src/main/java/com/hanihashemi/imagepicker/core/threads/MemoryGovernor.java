@@ -0,0 +1,177 @@
+package com.hanihashemi.imagepicker.core.threads;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+
+import com.hanihashemi.imagepicker.api.exceptions.PickerException;
+import com.hanihashemi.imagepicker.utils.BitmapPool;
+import com.hanihashemi.imagepicker.utils.CancellationToken;
+
+import java.util.ArrayDeque;
+
+/**
+ * Admits the decodes of the image pipeline only while the bitmaps they allocate fit in a memory budget, so a large
+ * batch processed in parallel doesn't push the app into heavy GC or out of memory.
+ * <p/>
+ * Every decode is admitted with an estimate of the bytes it allocates, and waits until the decodes in flight leave
+ * room for it. Decodes are admitted in the order they asked, and one is always admitted when nothing else is in
+ * flight, however large. The budget is a quarter of the heap the app is expected to use, the smaller of
+ * {@link Runtime#maxMemory()} and {@link ActivityManager#getMemoryClass()}.
+ * <p/>
+ * When the system reports memory pressure through {@link #onTrimMemory(int)}, fewer decodes run at once and pooled
+ * bitmaps are dropped. Full concurrency comes back once there was no pressure for a while.
+ */
+public final class MemoryGovernor implements ComponentCallbacks2 {
+    private final static long RECOVERY_MILLIS = 30 * 1000;
+    private final static long POLL_MILLIS = 100;
+    private final static int CONCURRENCY_MODERATE = 2;
+    private final static int CONCURRENCY_LOW = 1;
+
+    private static MemoryGovernor instance;
+
+    private final long budget;
+    // Waiting decodes, in the order they asked
+    private final ArrayDeque<Object> waiting = new ArrayDeque<>();
+    private long inUse;
+    private int active;
+    private int concurrency = Integer.MAX_VALUE;
+    private long lastPressure;
+    private long waits;
+
+    /**
+     * Governor with its own budget, which isn't told about memory pressure unless it is registered with
+     * {@link Context#registerComponentCallbacks}
+     */
+    public MemoryGovernor(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * The governor shared by all pickers of the app
+     */
+    public static synchronized MemoryGovernor getInstance(Context context) {
+        if (instance == null) {
+            Context application = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+            instance = new MemoryGovernor(getDefaultBudget(application));
+            application.registerComponentCallbacks(instance);
+        }
+        return instance;
+    }
+
+    private static long getDefaultBudget(Context context) {
+        long heap = Runtime.getRuntime().maxMemory();
+        ActivityManager manager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (manager != null && manager.getMemoryClass() > 0) {
+            heap = Math.min(heap, manager.getMemoryClass() * 1024L * 1024L);
+        }
+        return heap / 4;
+    }
+
+    /**
+     * Wait until a decode of the given bytes fits in the budget. Every call must be followed by a
+     * {@link #release(long)} of the same bytes.
+     *
+     * @throws PickerException if the token is cancelled while waiting
+     */
+    public synchronized void acquire(long bytes, CancellationToken cancellation) throws PickerException {
+        Object waiter = new Object();
+        waiting.addLast(waiter);
+        try {
+            boolean waited = false;
+            while (waiting.peekFirst() != waiter || !canAdmit(bytes)) {
+                if (cancellation.isCancelled()) {
+                    throw new PickerException("Cancelled");
+                }
+                waited = true;
+                try {
+                    wait(POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new PickerException("Interrupted");
+                }
+            }
+            if (waited) {
+                waits++;
+            }
+            active++;
+            inUse += bytes;
+        } finally {
+            waiting.remove(waiter);
+            // The next waiter may fit as well
+            notifyAll();
+        }
+    }
+
+    public synchronized void release(long bytes) {
+        active--;
+        inUse -= bytes;
+        notifyAll();
+    }
+
+    private boolean canAdmit(long bytes) {
+        if (concurrency < Integer.MAX_VALUE && System.currentTimeMillis() - lastPressure > RECOVERY_MILLIS) {
+            concurrency = Integer.MAX_VALUE;
+        }
+        if (active == 0) {
+            return true;
+        }
+        return active < concurrency && inUse + bytes <= budget;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Bytes of the decodes in flight
+     */
+    public synchronized long getBytesInUse() {
+        return inUse;
+    }
+
+    /**
+     * Most decodes admitted at once, lowered while the system is low on memory
+     */
+    public synchronized int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Number of decodes which had to wait before they were admitted
+     */
+    public synchronized long getWaitCount() {
+        return waits;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level == TRIM_MEMORY_UI_HIDDEN) {
+            // Not pressure, but the pooled bitmaps won't be needed soon
+            BitmapPool pool = BitmapPool.getInstance();
+            pool.trimToSize(pool.getSize() / 2);
+        } else if (level == TRIM_MEMORY_RUNNING_MODERATE || level == TRIM_MEMORY_BACKGROUND) {
+            limitConcurrency(CONCURRENCY_MODERATE);
+            BitmapPool pool = BitmapPool.getInstance();
+            pool.trimToSize(pool.getSize() / 2);
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            limitConcurrency(CONCURRENCY_LOW);
+            BitmapPool.getInstance().clear();
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration configuration) {
+    }
+
+    private synchronized void limitConcurrency(int limit) {
+        concurrency = Math.min(concurrency, limit);
+        lastPressure = System.currentTimeMillis();
+    }
+}
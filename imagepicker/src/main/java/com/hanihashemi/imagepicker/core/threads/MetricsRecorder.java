@@ -0,0 +1,170 @@
+package com.hanihashemi.imagepicker.core.threads;
+
+import com.hanihashemi.imagepicker.api.PipelineStage;
+import com.hanihashemi.imagepicker.api.callbacks.PickerMetricsListener;
+import com.hanihashemi.imagepicker.api.entity.BatchMetrics;
+import com.hanihashemi.imagepicker.api.entity.ChosenImage;
+import com.hanihashemi.imagepicker.api.entity.StageMetrics;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the {@link StageMetrics} of one batch and sums them up into its {@link BatchMetrics}.
+ * <p/>
+ * Stages of different images run in parallel. Each {@link Stage} is only used by the thread that started it, the
+ * batch totals are shared.
+ */
+public final class MetricsRecorder {
+    private final static int STAGES = PipelineStage.THUMBNAIL + 1;
+
+    private final PickerMetricsListener listener;
+    private final long startNanos;
+    private final AtomicLong liveBitmapBytes = new AtomicLong();
+    private final AtomicLong peakBitmapBytes = new AtomicLong();
+    private final long[] stageTimeNanos = new long[STAGES];
+    private long bytesRead;
+    private long bytesWritten;
+    private long bitmapBytes;
+
+    /**
+     * @param listener may be null, the figures are still collected
+     */
+    public MetricsRecorder(PickerMetricsListener listener) {
+        this.listener = listener;
+        this.startNanos = System.nanoTime();
+    }
+
+    public Stage startStage(int index, ChosenImage image, int stage) {
+        return startStage(index, image, stage, 0);
+    }
+
+    /**
+     * @param scale scale of the thumbnail for {@link PipelineStage#THUMBNAIL}
+     */
+    public Stage startStage(int index, ChosenImage image, int stage, int scale) {
+        return new Stage(index, image, stage, scale);
+    }
+
+    /**
+     * Report the summary of the batch, once all its stages are finished
+     */
+    public BatchMetrics finishBatch(List<? extends ChosenImage> images) {
+        int succeeded = 0;
+        for (ChosenImage image : images) {
+            if (image.isSuccess()) {
+                succeeded++;
+            }
+        }
+        return finishBatch(images.size(), succeeded);
+    }
+
+    /**
+     * Report the summary of a batch whose images aren't held anymore, e.g. one processed in chunks
+     */
+    public BatchMetrics finishBatch(int images, int succeeded) {
+        BatchMetrics metrics;
+        synchronized (this) {
+            metrics = new BatchMetrics(images, succeeded, System.nanoTime() - startNanos, bytesRead,
+                    bytesWritten, bitmapBytes, peakBitmapBytes.get(), stageTimeNanos.clone());
+        }
+        if (listener != null) {
+            listener.onBatchCompleted(metrics);
+        }
+        return metrics;
+    }
+
+    private synchronized void add(StageMetrics metrics) {
+        stageTimeNanos[metrics.getStage()] += metrics.getWallTimeNanos();
+        bytesRead += metrics.getBytesRead();
+        bytesWritten += metrics.getBytesWritten();
+        bitmapBytes += metrics.getBitmapBytes();
+    }
+
+    private void allocated(long bytes) {
+        long live = liveBitmapBytes.addAndGet(bytes);
+        long peak = peakBitmapBytes.get();
+        while (live > peak && !peakBitmapBytes.compareAndSet(peak, live)) {
+            peak = peakBitmapBytes.get();
+        }
+    }
+
+    private void released(long bytes) {
+        liveBitmapBytes.addAndGet(-bytes);
+    }
+
+    /**
+     * One stage of one image, from {@link #startStage(int, ChosenImage, int)} until {@link #finish()}
+     */
+    public final class Stage {
+        private final int index;
+        private final ChosenImage image;
+        private final int stage;
+        private final int scale;
+        private final long startNanos;
+        private long bytesRead;
+        private long bytesWritten;
+        private long bitmapBytes;
+        private long liveBitmapBytes;
+        private long peakBitmapBytes;
+        private boolean finished;
+
+        private Stage(int index, ChosenImage image, int stage, int scale) {
+            this.index = index;
+            this.image = image;
+            this.stage = stage;
+            this.scale = scale;
+            this.startNanos = System.nanoTime();
+        }
+
+        public void read(long bytes) {
+            bytesRead += bytes;
+        }
+
+        public void written(long bytes) {
+            bytesWritten += bytes;
+        }
+
+        /**
+         * A bitmap of the given size was decoded or created
+         */
+        public void bitmapAllocated(long bytes) {
+            bitmapBytes += bytes;
+            liveBitmapBytes += bytes;
+            peakBitmapBytes = Math.max(peakBitmapBytes, liveBitmapBytes);
+            allocated(bytes);
+        }
+
+        /**
+         * A bitmap of the given size was recycled
+         */
+        public void bitmapReleased(long bytes) {
+            liveBitmapBytes -= bytes;
+            released(bytes);
+        }
+
+        /**
+         * A bitmap allocated in an earlier stage is still held by this stage
+         */
+        public void bitmapCarried(long bytes) {
+            liveBitmapBytes += bytes;
+            peakBitmapBytes = Math.max(peakBitmapBytes, liveBitmapBytes);
+        }
+
+        /**
+         * Report the figures of this stage. Calling it again has no effect.
+         */
+        public void finish() {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            StageMetrics metrics = new StageMetrics(index, image, stage, scale, System.nanoTime() - startNanos,
+                    bytesRead, bytesWritten, bitmapBytes, peakBitmapBytes);
+            add(metrics);
+            if (listener != null) {
+                listener.onStageCompleted(metrics);
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.hanihashemi.imagepicker.core.threads;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Files written by the library itself, like the camera output or imported copies of content provider files.
+ * <p/>
+ * Only these files may be moved instead of copied when they are placed in the cache location. Everything else
+ * belongs to the user and is never touched.
+ */
+public final class OwnedFiles {
+    private final static Set<String> paths = Collections.synchronizedSet(new HashSet<String>());
+
+    private OwnedFiles() {
+    }
+
+    public static void register(String path) {
+        if (path != null) {
+            paths.add(new File(path).getAbsolutePath());
+        }
+    }
+
+    public static boolean isOwned(String path) {
+        return path != null && paths.contains(new File(path).getAbsolutePath());
+    }
+
+    public static void release(String path) {
+        if (path != null) {
+            paths.remove(new File(path).getAbsolutePath());
+        }
+    }
+}
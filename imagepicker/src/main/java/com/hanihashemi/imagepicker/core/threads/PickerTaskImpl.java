@@ -0,0 +1,95 @@
+package com.hanihashemi.imagepicker.core.threads;
+
+import com.hanihashemi.imagepicker.api.PickerTask;
+import com.hanihashemi.imagepicker.api.entity.ChosenImage;
+import com.hanihashemi.imagepicker.utils.CancellationToken;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link PickerTask} which is completed by the processing threads, and polled by them for cancellation
+ */
+public final class PickerTaskImpl implements PickerTask, CancellationToken {
+    private final static int RUNNING = 0;
+    private final static int COMPLETED = 1;
+    private final static int FAILED = 2;
+    private final static int CANCELLED = 3;
+
+    private final AtomicInteger state = new AtomicInteger(RUNNING);
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile List<ChosenImage> images;
+    private volatile Throwable error;
+
+    @Override
+    public boolean cancel() {
+        return finish(CANCELLED);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return cancel();
+    }
+
+    /**
+     * @return false if the task was cancelled before, the images must not be delivered then
+     */
+    public boolean complete(List<ChosenImage> images) {
+        this.images = images;
+        return finish(COMPLETED);
+    }
+
+    public boolean fail(Throwable error) {
+        this.error = error;
+        return finish(FAILED);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return state.get() == CANCELLED;
+    }
+
+    @Override
+    public boolean isDone() {
+        return state.get() != RUNNING;
+    }
+
+    @Override
+    public List<ChosenImage> get() throws InterruptedException, ExecutionException {
+        done.await();
+        return getResult();
+    }
+
+    @Override
+    public List<ChosenImage> get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return getResult();
+    }
+
+    private boolean finish(int result) {
+        if (!state.compareAndSet(RUNNING, result)) {
+            return false;
+        }
+        done.countDown();
+        return true;
+    }
+
+    private List<ChosenImage> getResult() throws ExecutionException {
+        switch (state.get()) {
+            case CANCELLED:
+                throw new CancellationException();
+            case FAILED:
+                throw new ExecutionException(error);
+            default:
+                return images;
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package com.hanihashemi.imagepicker.core.threads;
+
+import com.hanihashemi.imagepicker.api.entity.ChosenImage;
+import com.hanihashemi.imagepicker.utils.FileUtils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hanihashemi.imagepicker.utils.StreamHelper.closeSilent;
+
+/**
+ * Append-only, on-disk record of how far every image of a batch got, so a batch interrupted by the process being
+ * killed resumes where it stopped instead of starting over.
+ * <p/>
+ * A journal is named after a hash of the picked URIs. It starts with the URIs and the processing options, and gets
+ * one line per image and completed stage with everything the stage changed in the image, and the files it wrote.
+ * Each line is written with a single unbuffered write and ends with a marker, so a killed process leaves at most
+ * one torn line at the end, which is ignored. A stage is only restored when all the files it refers to are still
+ * there.
+ * <p/>
+ * The journal is deleted once the batch is done or cancelled. Only a killed process leaves one behind.
+ */
+public final class ProcessingJournal {
+    /**
+     * The image has a local path: a resolved content:// uri, or a provider stream or download imported to a file
+     */
+    public final static int RESOLVED = 1;
+    /**
+     * The image was placed in the cache location
+     */
+    public final static int IMPORTED = 2;
+    /**
+     * The image was downscaled to the max size
+     */
+    public final static int RESIZED = 3;
+    /**
+     * The thumbnails were written
+     */
+    public final static int THUMBNAILED = 4;
+
+    private final static String SUFFIX = ".journal";
+    private final static String URI = "U";
+    private final static String OPTIONS = "O";
+    private final static String RECORD = "R";
+    // Last field of a complete record
+    private final static String END = "E";
+    // index, stage and the fields of the image, followed by the written files and the end
+    private final static int RECORD_FIELDS = 15;
+    // Journals of batches which were never resumed
+    private final static long MAX_AGE_MILLIS = 7L * 24 * 60 * 60 * 1000;
+
+    private final File file;
+    // Records of every image, oldest first
+    private final Map<Integer, List<String[]>> records = new HashMap<>();
+    private OutputStream output;
+
+    private ProcessingJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Open the journal of the batch, or start a new one. Records written with other options are dropped.
+     *
+     * @param options the processing options which change the outputs, e.g. the max size
+     */
+    public static ProcessingJournal open(File directory, List<String> uris, String options) throws IOException {
+        //noinspection ResultOfMethodCallIgnored
+        directory.mkdirs();
+        ProcessingJournal journal = new ProcessingJournal(new File(directory, getKey(uris) + SUFFIX));
+        List<String> header = new ArrayList<>();
+        for (String uri : uris) {
+            header.add(line(URI, clean(uri)));
+        }
+        header.add(line(OPTIONS, clean(options)));
+        if (!journal.file.exists() || !journal.read(uris, options)) {
+            journal.records.clear();
+            journal.output = new FileOutputStream(journal.file, false);
+            StringBuilder builder = new StringBuilder();
+            for (String line : header) {
+                builder.append(line);
+            }
+            journal.output.write(builder.toString().getBytes("UTF-8"));
+        } else {
+            journal.terminateTornLine();
+            journal.output = new FileOutputStream(journal.file, true);
+        }
+        return journal;
+    }
+
+    /**
+     * URIs of the most recently interrupted batch in the directory, or null if there is none. Journals older than
+     * a week are deleted.
+     */
+    public static List<String> findInterrupted(File directory) {
+        File[] journals = directory.listFiles();
+        if (journals == null) {
+            return null;
+        }
+        File latest = null;
+        long now = System.currentTimeMillis();
+        for (File journal : journals) {
+            if (!journal.getName().endsWith(SUFFIX)) {
+                continue;
+            }
+            if (now - journal.lastModified() > MAX_AGE_MILLIS) {
+                //noinspection ResultOfMethodCallIgnored
+                journal.delete();
+            } else if (latest == null || journal.lastModified() > latest.lastModified()) {
+                latest = journal;
+            }
+        }
+        if (latest == null) {
+            return null;
+        }
+        List<String> uris = new ArrayList<>();
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(latest), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null && line.startsWith(URI + "\t")) {
+                uris.add(line.substring(URI.length() + 1));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            closeSilent(reader);
+        }
+        return uris.isEmpty() ? null : uris;
+    }
+
+    /**
+     * Restore the image from its last stage whose files are all still there
+     *
+     * @param outputs gets the files written for the image up to that stage
+     * @return the restored stage, or 0 if the image has to be processed from the start
+     */
+    public synchronized int restore(int index, ChosenImage image, List<File> outputs) {
+        List<String[]> imageRecords = records.get(index);
+        if (imageRecords == null) {
+            return 0;
+        }
+        for (int i = imageRecords.size() - 1; i >= 0; i--) {
+            String[] fields = imageRecords.get(i);
+            if (isValid(fields)) {
+                apply(fields, image);
+                for (int j = RECORD_FIELDS; j < fields.length - 1; j++) {
+                    outputs.add(new File(fields[j]));
+                }
+                return Integer.parseInt(fields[1]);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Append a completed stage of the image
+     *
+     * @param outputs files written for the image so far
+     */
+    public synchronized void record(int index, int stage, ChosenImage image, List<File> outputs) {
+        if (output == null) {
+            return;
+        }
+        StringBuilder builder = new StringBuilder(RECORD).append('\t').append(index).append('\t').append(stage);
+        String[] fields = {image.getOriginalPath(), image.getMimeType(), image.getExtension(),
+                String.valueOf(image.getSize()), image.getDisplayName(), image.getTempFile(),
+                String.valueOf(image.getWidth()), String.valueOf(image.getHeight()),
+                String.valueOf(image.getOrientation()), image.getThumbnailPath(), image.getThumbnailSmallPath(),
+                image.getDigest(), image.getCreatedAt() != null ? String.valueOf(image.getCreatedAt().getTime()) : ""};
+        for (String field : fields) {
+            builder.append('\t').append(clean(field));
+        }
+        if (outputs != null) {
+            for (File written : outputs) {
+                builder.append('\t').append(clean(written.getAbsolutePath()));
+            }
+        }
+        builder.append('\t').append(END).append('\n');
+        try {
+            output.write(builder.toString().getBytes("UTF-8"));
+        } catch (IOException e) {
+            // Not resumable from here on, the processing itself goes on
+            e.printStackTrace();
+            close();
+        }
+    }
+
+    /**
+     * Delete the journal, once the batch is done or cancelled
+     */
+    public synchronized void delete() {
+        close();
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    private void close() {
+        closeSilent(output);
+        output = null;
+    }
+
+    // @return false if the journal was written for other URIs or options
+    private boolean read(List<String> uris, String options) {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            int uriCount = 0;
+            boolean sameOptions = false;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields[0].equals(URI)) {
+                    if (uriCount >= uris.size() || !clean(uris.get(uriCount)).equals(line.substring(2))) {
+                        return false;
+                    }
+                    uriCount++;
+                } else if (fields[0].equals(OPTIONS)) {
+                    sameOptions = clean(options).equals(line.substring(2));
+                } else if (fields[0].equals(RECORD) && fields.length >= RECORD_FIELDS + 2
+                        && fields[fields.length - 1].equals(END)) {
+                    addRecord(fields);
+                }
+            }
+            return uriCount == uris.size() && sameOptions;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            closeSilent(reader);
+        }
+    }
+
+    private void addRecord(String[] line) {
+        // Without the leading record type
+        String[] fields = new String[line.length - 1];
+        System.arraycopy(line, 1, fields, 0, fields.length);
+        int index;
+        try {
+            index = Integer.parseInt(fields[0]);
+            Integer.parseInt(fields[1]);
+            Long.parseLong(fields[5]);
+            Integer.parseInt(fields[8]);
+            Integer.parseInt(fields[9]);
+            Integer.parseInt(fields[10]);
+            if (!fields[14].isEmpty()) {
+                Long.parseLong(fields[14]);
+            }
+        } catch (NumberFormatException e) {
+            return;
+        }
+        List<String[]> imageRecords = records.get(index);
+        if (imageRecords == null) {
+            imageRecords = new ArrayList<>();
+            records.put(index, imageRecords);
+        }
+        imageRecords.add(fields);
+    }
+
+    // A torn last line would swallow the first line appended after it
+    private void terminateTornLine() throws IOException {
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+        try {
+            long length = access.length();
+            if (length > 0) {
+                access.seek(length - 1);
+                if (access.read() != '\n') {
+                    access.write('\n');
+                }
+            }
+        } finally {
+            access.close();
+        }
+    }
+
+    private static boolean isValid(String[] fields) {
+        int stage = Integer.parseInt(fields[1]);
+        String path = emptyToNull(fields[2]);
+        if (path == null || path.startsWith("content:") || path.startsWith("http") || !new File(path).isFile()) {
+            return false;
+        }
+        if (stage >= THUMBNAILED && (!exists(fields[11]) || !exists(fields[12]))) {
+            return false;
+        }
+        for (int i = RECORD_FIELDS; i < fields.length - 1; i++) {
+            if (!new File(fields[i]).exists()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Empty fields are files that weren't written
+    private static boolean exists(String path) {
+        return path.isEmpty() || new File(path).isFile();
+    }
+
+    private static void apply(String[] fields, ChosenImage image) {
+        image.setOriginalPath(emptyToNull(fields[2]));
+        image.setMimeType(emptyToNull(fields[3]));
+        image.setExtension(emptyToNull(fields[4]));
+        image.setSize(Long.parseLong(fields[5]));
+        image.setDisplayName(emptyToNull(fields[6]));
+        image.setTempFile(fields[7]);
+        image.setWidth(Integer.parseInt(fields[8]));
+        image.setHeight(Integer.parseInt(fields[9]));
+        image.setOrientation(Integer.parseInt(fields[10]));
+        image.setThumbnailPath(emptyToNull(fields[11]));
+        image.setThumbnailSmallPath(emptyToNull(fields[12]));
+        image.setDigest(emptyToNull(fields[13]));
+        if (!fields[14].isEmpty()) {
+            image.setCreatedAt(new Date(Long.parseLong(fields[14])));
+        }
+    }
+
+    private static String line(String type, String value) {
+        return type + "\t" + value + "\n";
+    }
+
+    private static String clean(String value) {
+        return value == null ? "" : value.replace('\t', ' ').replace('\n', ' ');
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    private static String getKey(List<String> uris) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for (String uri : uris) {
+                digest.update(uri.getBytes("UTF-8"));
+                digest.update((byte) '\n');
+            }
+            return FileUtils.toHex(digest.digest());
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.hanihashemi.imagepicker.core.threads;
+
+import android.os.Environment;
+import android.os.Process;
+
+import com.hanihashemi.imagepicker.api.CacheLocation;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared, bounded worker pools used to process the picked files in parallel.
+ * <p/>
+ * One pool is kept per kind of storage. Internal and emulated external storage live on the same
+ * flash and can take a few parallel writers, removable storage is slow and gets fewer threads.
+ * Idle threads time out, so the pools cost nothing while the picker isn't used.
+ */
+public final class ProcessorPool {
+    private final static int MAX_THREADS_FLASH = 4;
+    private final static int MAX_THREADS_REMOVABLE = 2;
+    private final static int KEEP_ALIVE_SECONDS = 30;
+
+    private static ThreadPoolExecutor flashExecutor;
+    private static ThreadPoolExecutor removableExecutor;
+
+    private ProcessorPool() {
+    }
+
+    /**
+     * Get the shared pool for the given {@link CacheLocation}
+     */
+    public static synchronized Executor forCacheLocation(int cacheLocation) {
+        if (isRemovableStorage(cacheLocation)) {
+            if (removableExecutor == null) {
+                removableExecutor = newExecutor("removable", Math.min(getCores(), MAX_THREADS_REMOVABLE));
+            }
+            return removableExecutor;
+        }
+        if (flashExecutor == null) {
+            flashExecutor = newExecutor("flash", Math.max(1, Math.min(getCores() - 1, MAX_THREADS_FLASH)));
+        }
+        return flashExecutor;
+    }
+
+    private static boolean isRemovableStorage(int cacheLocation) {
+        if (cacheLocation == CacheLocation.INTERNAL_APP_DIR) {
+            return false;
+        }
+        try {
+            return !Environment.isExternalStorageEmulated() && Environment.isExternalStorageRemovable();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static int getCores() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors());
+    }
+
+    private static ThreadPoolExecutor newExecutor(final String name, int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "ImagePicker-" + name + "-" + count.incrementAndGet());
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
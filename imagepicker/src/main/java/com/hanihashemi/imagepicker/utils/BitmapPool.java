@@ -0,0 +1,241 @@
+package com.hanihashemi.imagepicker.utils;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.Build;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Pool of mutable bitmaps which are reused for decoding (through {@link android.graphics.BitmapFactory.Options#inBitmap})
+ * and as drawing targets, so processing a batch doesn't allocate and collect several large bitmaps per image.
+ * <p/>
+ * Bitmaps are kept in buckets by the power of two of their allocation size. From KitKat on any pooled bitmap that is
+ * large enough can be reconfigured to the requested size. Before that, only a bitmap of exactly the requested size
+ * and config can be reused, and decoding into it only works without a sample size.
+ * <p/>
+ * The pool holds at most an eighth of the heap. Bitmaps which don't fit are recycled.
+ */
+public final class BitmapPool {
+    private final static BitmapPool INSTANCE = new BitmapPool(Runtime.getRuntime().maxMemory() / 8);
+
+    private final Map<Integer, ArrayDeque<Bitmap>> buckets = new HashMap<>();
+    private long maxSize;
+    private long size;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private BitmapPool(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public static BitmapPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get a mutable, transparent bitmap of the given size and config, from the pool or newly allocated
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = take(width, height, config, true);
+        if (bitmap == null) {
+            return Bitmap.createBitmap(width, height, config);
+        }
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+
+    /**
+     * Find a bitmap to decode into. Set it as <code>inBitmap</code>, the decoder reconfigures it.
+     *
+     * @param width        width of the decoded image
+     * @param height       height of the decoded image
+     * @param inSampleSize sample size of the decode
+     * @return a pooled bitmap, or null if none can be used
+     */
+    public Bitmap getForDecode(int width, int height, int inSampleSize, Bitmap.Config config) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT && inSampleSize > 1) {
+            return null;
+        }
+        return take(width, height, config, false);
+    }
+
+    /**
+     * Give a bitmap back once it isn't used anymore. Immutable bitmaps can't be reused and are recycled.
+     */
+    public void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        int bytes = getAllocationByteCount(bitmap);
+        if (!bitmap.isMutable() || bytes > maxSize) {
+            bitmap.recycle();
+            return;
+        }
+        synchronized (this) {
+            ArrayDeque<Bitmap> bucket = buckets.get(getBucket(bytes));
+            if (bucket == null) {
+                bucket = new ArrayDeque<>();
+                buckets.put(getBucket(bytes), bucket);
+            }
+            bucket.push(bitmap);
+            size += bytes;
+            trimToSize(maxSize);
+        }
+    }
+
+    /**
+     * Recycle pooled bitmaps until the pool holds at most the given number of bytes
+     */
+    public synchronized void trimToSize(long bytes) {
+        Iterator<ArrayDeque<Bitmap>> iterator = buckets.values().iterator();
+        while (size > bytes && iterator.hasNext()) {
+            ArrayDeque<Bitmap> bucket = iterator.next();
+            while (size > bytes && !bucket.isEmpty()) {
+                // Oldest first
+                Bitmap bitmap = bucket.removeLast();
+                size -= getAllocationByteCount(bitmap);
+                evictions++;
+                bitmap.recycle();
+            }
+            if (bucket.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * Change the largest number of bytes the pool holds, trimming it if needed
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    /**
+     * Bytes held by the pooled bitmaps
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Number of requests served with a pooled bitmap
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Number of requests that needed a new bitmap
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Number of bitmaps recycled because the pool was full or trimmed
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    public synchronized void resetCounters() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    private synchronized Bitmap take(int width, int height, Bitmap.Config config, boolean reconfigure) {
+        Bitmap bitmap;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            bitmap = takeLargeEnough(getByteCount(width, height, config));
+            if (bitmap != null && reconfigure) {
+                reconfigure(bitmap, width, height, config);
+            }
+        } else {
+            bitmap = takeExact(width, height, config);
+        }
+        if (bitmap == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return bitmap;
+    }
+
+    private Bitmap takeLargeEnough(int bytes) {
+        // The bitmap's own bucket may hold smaller bitmaps, the next one only holds larger ones
+        for (int bucketIndex = getBucket(bytes); bucketIndex <= getBucket(bytes) + 1; bucketIndex++) {
+            ArrayDeque<Bitmap> bucket = buckets.get(bucketIndex);
+            if (bucket == null) {
+                continue;
+            }
+            for (Iterator<Bitmap> iterator = bucket.iterator(); iterator.hasNext(); ) {
+                Bitmap bitmap = iterator.next();
+                int allocation = getAllocationByteCount(bitmap);
+                if (allocation >= bytes) {
+                    iterator.remove();
+                    size -= allocation;
+                    return bitmap;
+                }
+            }
+        }
+        return null;
+    }
+
+    private Bitmap takeExact(int width, int height, Bitmap.Config config) {
+        ArrayDeque<Bitmap> bucket = buckets.get(getBucket(getByteCount(width, height, config)));
+        if (bucket == null) {
+            return null;
+        }
+        for (Iterator<Bitmap> iterator = bucket.iterator(); iterator.hasNext(); ) {
+            Bitmap bitmap = iterator.next();
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config) {
+                iterator.remove();
+                size -= getAllocationByteCount(bitmap);
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static void reconfigure(Bitmap bitmap, int width, int height, Bitmap.Config config) {
+        bitmap.reconfigure(width, height, config);
+    }
+
+    private static int getAllocationByteCount(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+
+    private static int getByteCount(int width, int height, Bitmap.Config config) {
+        return width * height * getBytesPerPixel(config);
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        } else if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        }
+        return 4;
+    }
+
+    // Index of the highest bit, so a bucket holds the sizes from 2^n to 2^(n+1) - 1
+    private static int getBucket(int bytes) {
+        return 31 - Integer.numberOfLeadingZeros(Math.max(1, bytes));
+    }
+}
@@ -1,5 +1,7 @@
 package com.hanihashemi.imagepicker.utils;
 
+import android.media.ExifInterface;
+
 /**
  * Created by kbibek on 3/18/16.
  */
@@ -40,4 +42,126 @@ public class BitmapUtils {
         }
         return values;
     }
+
+    /**
+     * Largest power of two sample size which still decodes the image to at least the requested dimensions.
+     */
+    public static int calculateInSampleSize(int originalWidth, int originalHeight, int requiredWidth, int requiredHeight) {
+        int inSampleSize = 1;
+        if (requiredWidth <= 0 || requiredHeight <= 0) {
+            return inSampleSize;
+        }
+        while (originalWidth / (inSampleSize * 2) >= requiredWidth
+                && originalHeight / (inSampleSize * 2) >= requiredHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * Dimensions of a bitmap decoded with the given sample size. Decoders round the sample size down to a power
+     * of two, and may round the dimensions up.
+     */
+    public static int[] getDecodedDimensions(int width, int height, int inSampleSize) {
+        int sample = getDecodedSampleSize(inSampleSize);
+        return new int[]{(width + sample - 1) / sample, (height + sample - 1) / sample};
+    }
+
+    /**
+     * Bytes of the ARGB_8888 bitmap the whole image decodes to with the given sample size
+     */
+    public static long getDecodedBytes(int width, int height, int inSampleSize) {
+        int[] decoded = getDecodedDimensions(width, height, inSampleSize);
+        return 4L * decoded[0] * decoded[1];
+    }
+
+    /**
+     * Rows of the image in one band of a tiled decode, so that a band decoded with the given sample size takes at
+     * most the given bytes. Always a multiple of the sample size, and at least one sampled row.
+     */
+    public static int getBandHeight(int width, int inSampleSize, long bandBytes) {
+        int sample = getDecodedSampleSize(inSampleSize);
+        long rowBytes = 4L * ((width + sample - 1) / sample);
+        long rows = Math.max(1, bandBytes / rowBytes);
+        return (int) Math.min(rows, Integer.MAX_VALUE / sample) * sample;
+    }
+
+    // Decoders round the sample size down to a power of two
+    private static int getDecodedSampleSize(int inSampleSize) {
+        int sample = 1;
+        while (sample * 2 <= inSampleSize) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    /**
+     * Whether the EXIF orientation swaps width and height
+     */
+    public static boolean isTransposed(int orientation) {
+        return orientation == ExifInterface.ORIENTATION_TRANSPOSE || orientation == ExifInterface.ORIENTATION_ROTATE_90
+                || orientation == ExifInterface.ORIENTATION_TRANSVERSE
+                || orientation == ExifInterface.ORIENTATION_ROTATE_270;
+    }
+
+    /**
+     * Values for {@link android.graphics.Matrix#setValues(float[])} of the transform which scales a bitmap and turns
+     * it upright according to its EXIF orientation, including the mirrored ones.
+     *
+     * @param width  width of the output, after the orientation is applied
+     * @param height height of the output, after the orientation is applied
+     */
+    public static float[] getTransformValues(int orientation, int sourceWidth, int sourceHeight, int width, int height) {
+        boolean transposed = isTransposed(orientation);
+        // Size of the scaled source, before it is turned
+        float scaledWidth = transposed ? height : width;
+        float scaledHeight = transposed ? width : height;
+        float sx = scaledWidth / sourceWidth;
+        float sy = scaledHeight / sourceHeight;
+        // x = a * u + b * v + c, y = d * u + e * v + f for a source pixel (u, v)
+        float a = 0, b = 0, c = 0, d = 0, e = 0, f = 0;
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                a = -sx;
+                c = scaledWidth;
+                e = sy;
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                a = -sx;
+                c = scaledWidth;
+                e = -sy;
+                f = scaledHeight;
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                a = sx;
+                e = -sy;
+                f = scaledHeight;
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                b = sy;
+                d = sx;
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                b = -sy;
+                c = scaledHeight;
+                d = sx;
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                b = -sy;
+                c = scaledHeight;
+                d = -sx;
+                f = scaledWidth;
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                b = sy;
+                d = -sx;
+                f = scaledWidth;
+                break;
+            default:
+                a = sx;
+                e = sy;
+                break;
+        }
+        return new float[]{a, b, c, d, e, f, 0, 0, 1};
+    }
 }
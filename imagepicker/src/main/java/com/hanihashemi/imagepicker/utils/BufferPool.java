@@ -0,0 +1,71 @@
+package com.hanihashemi.imagepicker.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Pool of large I/O buffers shared by all import paths.
+ * <p/>
+ * Buffers are kept in a few slots, and a thread starts looking for a free buffer at the slot picked by its id,
+ * so parallel workers rarely compete for the same slot. When all slots are taken a new buffer is allocated, and
+ * when all slots are full a released buffer is simply dropped.
+ */
+public final class BufferPool {
+    public final static int BUFFER_SIZE = 128 * 1024;
+    private final static int SLOTS = 8;
+
+    private final static AtomicReferenceArray<byte[]> slots = new AtomicReferenceArray<>(SLOTS);
+    private final static AtomicLong allocations = new AtomicLong();
+
+    private BufferPool() {
+    }
+
+    /**
+     * Get a buffer of {@link #BUFFER_SIZE} bytes. Give it back with {@link #release(byte[])} when done.
+     */
+    public static byte[] acquire() {
+        int start = getStartSlot();
+        for (int i = 0; i < SLOTS; i++) {
+            int slot = (start + i) % SLOTS;
+            byte[] buffer = slots.get(slot);
+            if (buffer != null && slots.compareAndSet(slot, buffer, null)) {
+                return buffer;
+            }
+        }
+        allocations.incrementAndGet();
+        return new byte[BUFFER_SIZE];
+    }
+
+    public static void release(byte[] buffer) {
+        if (buffer == null || buffer.length != BUFFER_SIZE) {
+            return;
+        }
+        int start = getStartSlot();
+        for (int i = 0; i < SLOTS; i++) {
+            if (slots.compareAndSet((start + i) % SLOTS, null, buffer)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Number of buffers allocated since the process started, or since {@link #clear()}
+     */
+    public static long getAllocationCount() {
+        return allocations.get();
+    }
+
+    /**
+     * Drop all pooled buffers
+     */
+    public static void clear() {
+        for (int i = 0; i < SLOTS; i++) {
+            slots.set(i, null);
+        }
+        allocations.set(0);
+    }
+
+    private static int getStartSlot() {
+        return (int) (Thread.currentThread().getId() % SLOTS);
+    }
+}
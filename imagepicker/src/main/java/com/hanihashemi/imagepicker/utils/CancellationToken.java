@@ -0,0 +1,16 @@
+package com.hanihashemi.imagepicker.utils;
+
+/**
+ * Polled by long running copy loops, which stop with an {@link java.io.InterruptedIOException} once it is
+ * cancelled.
+ */
+public interface CancellationToken {
+    CancellationToken NONE = new CancellationToken() {
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    };
+
+    boolean isCancelled();
+}
@@ -15,13 +15,19 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * Created by kbibek on 2/20/16.
  */
 public class FileUtils {
     private final static String TAG = FileUtils.class.getSimpleName();
+    private final static long TRANSFER_CHUNK_BYTES = 8 * 1024 * 1024;
 
     public static String getExternalFilesDir(String type, Context context) throws PickerException {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
@@ -60,6 +66,14 @@ public class FileUtils {
 
     public static void copyFile(File srcFile, File destFile,
                                 boolean preserveFileDate) throws IOException {
+        copyFile(srcFile, destFile, preserveFileDate, CancellationToken.NONE);
+    }
+
+    /**
+     * {@link #copyFile(File, File, boolean)} which stops copying once the token is cancelled
+     */
+    public static void copyFile(File srcFile, File destFile, boolean preserveFileDate,
+                                CancellationToken cancellation) throws IOException {
         if (srcFile == null) {
             throw new NullPointerException("Source must not be null");
         }
@@ -83,10 +97,11 @@ public class FileUtils {
         if (destFile.exists() && destFile.canWrite() == false) {
             throw new IOException("Destination '" + destFile + "' exists but is read-only");
         }
-        doCopyFile(srcFile, destFile, preserveFileDate);
+        doCopyFile(srcFile, destFile, preserveFileDate, cancellation);
     }
 
-    private static void doCopyFile(File srcFile, File destFile, boolean preserveFileDate) throws IOException {
+    private static void doCopyFile(File srcFile, File destFile, boolean preserveFileDate,
+                                   CancellationToken cancellation) throws IOException {
         if (destFile.exists() && destFile.isDirectory()) {
             throw new IOException("Destination '" + destFile + "' exists but is a directory");
         }
@@ -95,7 +110,7 @@ public class FileUtils {
         try {
             FileOutputStream output = new FileOutputStream(destFile);
             try {
-                copy(input, output);
+                copyLarge(input, output, cancellation);
             } finally {
                 output.flush();
                 output.close();
@@ -113,6 +128,47 @@ public class FileUtils {
         }
     }
 
+    /**
+     * Put the source file at the destination with the cheapest operation that works.
+     * <p/>
+     * If <code>mayMove</code> is set, the file is first renamed and then hard linked (followed by removing the
+     * source), both of which only work within one volume. It is copied when neither works, or when the source may
+     * not be touched.
+     *
+     * @param mayMove whether the source file may disappear. Never set this for files the user owns.
+     * @return true if the content was copied, false if the file was moved or linked
+     */
+    public static boolean placeFile(File source, File destination, boolean mayMove) throws IOException {
+        return placeFile(source, destination, mayMove, CancellationToken.NONE);
+    }
+
+    /**
+     * {@link #placeFile(File, File, boolean)} which stops copying once the token is cancelled
+     */
+    public static boolean placeFile(File source, File destination, boolean mayMove, CancellationToken cancellation)
+            throws IOException {
+        if (mayMove) {
+            if (destination.getParentFile() != null) {
+                //noinspection ResultOfMethodCallIgnored
+                destination.getParentFile().mkdirs();
+            }
+            if (source.renameTo(destination)) {
+                return false;
+            }
+            if (link(source, destination)) {
+                //noinspection ResultOfMethodCallIgnored
+                source.delete();
+                return false;
+            }
+        }
+        copyFile(source, destination, true, cancellation);
+        return true;
+    }
+
+    private static boolean link(File source, File destination) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && HardLinks.link(source, destination);
+    }
+
     public static int copy(InputStream input, OutputStream output) throws IOException {
         long count = copyLarge(input, output);
         if (count > Integer.MAX_VALUE) {
@@ -121,18 +177,142 @@ public class FileUtils {
         return (int) count;
     }
 
+    /**
+     * Copy the input to the output. When both are file streams on a regular file, the bytes are moved with
+     * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)} and never pass through
+     * the Java heap. Pipes, sockets and other streams use a loop over a pooled buffer.
+     */
     public static long copyLarge(InputStream input, OutputStream output)
             throws IOException {
-        byte[] buffer = new byte[2048];
+        return copyLarge(input, output, CancellationToken.NONE);
+    }
+
+    /**
+     * {@link #copyLarge(InputStream, OutputStream)} which checks the token between chunks, and stops with an
+     * {@link InterruptedIOException} once it is cancelled. The output is left incomplete.
+     */
+    public static long copyLarge(InputStream input, OutputStream output, CancellationToken cancellation)
+            throws IOException {
         long count = 0;
-        int n = 0;
-        while (-1 != (n = input.read(buffer))) {
-            output.write(buffer, 0, n);
-            count += n;
+        if (input instanceof FileInputStream && output instanceof FileOutputStream) {
+            count = transfer(((FileInputStream) input).getChannel(), ((FileOutputStream) output).getChannel(),
+                    cancellation);
+        }
+        // Copies whatever the channels couldn't, which is everything for pipes and sockets
+        byte[] buffer = BufferPool.acquire();
+        try {
+            int n = 0;
+            while (-1 != (n = input.read(buffer))) {
+                throwIfCancelled(cancellation);
+                output.write(buffer, 0, n);
+                count += n;
+            }
+        } finally {
+            BufferPool.release(buffer);
         }
         return count;
     }
 
+    private static long transfer(FileChannel source, FileChannel destination, CancellationToken cancellation)
+            throws IOException {
+        long position;
+        long size;
+        try {
+            position = source.position();
+            size = source.size();
+        } catch (IOException e) {
+            // Not a regular file, size and position aren't supported
+            return 0;
+        }
+        long count = 0;
+        try {
+            while (position + count < size) {
+                throwIfCancelled(cancellation);
+                // In chunks, so a cancellation doesn't have to wait for the whole file
+                long transferred = source.transferTo(position + count,
+                        Math.min(TRANSFER_CHUNK_BYTES, size - position - count), destination);
+                if (transferred <= 0) {
+                    break;
+                }
+                count += transferred;
+            }
+        } finally {
+            // transferTo doesn't move the source, the stream loop has to continue after the transferred bytes
+            source.position(position + count);
+        }
+        return count;
+    }
+
+    private static void throwIfCancelled(CancellationToken cancellation) throws InterruptedIOException {
+        if (cancellation.isCancelled()) {
+            throw new InterruptedIOException("Cancelled");
+        }
+    }
+
+    /**
+     * Cheap fingerprint of the contents of a file: a hash of its size and of the first and last
+     * <code>sampleBytes</code> bytes. The whole file is hashed when it is smaller than twice the sample.
+     */
+    public static String getContentFingerprint(File file, int sampleBytes) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.getMessage());
+        }
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            long length = input.length();
+            digest.update(Long.toString(length).getBytes("UTF-8"));
+            byte[] buffer = new byte[(int) Math.min(length, 2L * sampleBytes)];
+            if (length <= 2L * sampleBytes) {
+                input.readFully(buffer);
+            } else {
+                input.readFully(buffer, 0, sampleBytes);
+                input.seek(length - sampleBytes);
+                input.readFully(buffer, sampleBytes, sampleBytes);
+            }
+            digest.update(buffer);
+        } finally {
+            input.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Digest of the whole file with the given {@link MessageDigest} algorithm, as hex
+     */
+    public static String getDigest(File file, String algorithm) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.getMessage());
+        }
+        FileInputStream input = new FileInputStream(file);
+        byte[] buffer = BufferPool.acquire();
+        try {
+            int n;
+            while (-1 != (n = input.read(buffer))) {
+                digest.update(buffer, 0, n);
+            }
+        } finally {
+            BufferPool.release(buffer);
+            input.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    public static String toHex(byte[] bytes) {
+        char[] hexDigits = "0123456789abcdef".toCharArray();
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = hexDigits[(bytes[i] >> 4) & 0x0f];
+            chars[i * 2 + 1] = hexDigits[bytes[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+
     public static String getInternalFileDirectory(Context context) {
         return context.getFilesDir().getAbsolutePath();
     }
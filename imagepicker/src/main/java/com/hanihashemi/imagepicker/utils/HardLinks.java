@@ -0,0 +1,33 @@
+package com.hanihashemi.imagepicker.utils;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+
+import java.io.File;
+
+/**
+ * Hard links through {@link Os#link(String, String)}. Kept out of {@link FileUtils}, so the Lollipop classes are
+ * only resolved on devices which have them.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+final class HardLinks {
+    private HardLinks() {
+    }
+
+    /**
+     * @return false if the file system doesn't support hard links, or the files are on different ones
+     */
+    static boolean link(File source, File destination) {
+        try {
+            if (destination.exists() && !destination.delete()) {
+                return false;
+            }
+            Os.link(source.getAbsolutePath(), destination.getAbsolutePath());
+            return true;
+        } catch (ErrnoException e) {
+            return false;
+        }
+    }
+}
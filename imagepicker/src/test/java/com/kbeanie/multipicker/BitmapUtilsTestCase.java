@@ -1,5 +1,7 @@
 package com.hanihashemi.imagepicker;
 
+import android.media.ExifInterface;
+
 import com.hanihashemi.imagepicker.utils.BitmapUtils;
 
 import junit.framework.Assert;
@@ -69,4 +71,116 @@ public class BitmapUtilsTestCase extends TestCase {
         Assert.assertEquals((int) ((800 / (float) 1200) * 300), dimensions[0]);
         Assert.assertEquals(300, dimensions[1]);
     }
+
+    public void testCalculateInSampleSizeNoSampling() {
+        Assert.assertEquals(1, BitmapUtils.calculateInSampleSize(800, 600, 500, 375));
+        Assert.assertEquals(1, BitmapUtils.calculateInSampleSize(800, 600, 800, 600));
+    }
+
+    public void testCalculateInSampleSizeLargeImage() {
+        // 48 MP source to a 400 px wide output: 8000 / 16 = 500 still covers the target, 8000 / 32 doesn't
+        int sampleSize = BitmapUtils.calculateInSampleSize(8000, 6000, 400, 300);
+        Assert.assertEquals(16, sampleSize);
+        Assert.assertTrue(8000 / sampleSize >= 400);
+        Assert.assertTrue(6000 / sampleSize >= 300);
+    }
+
+    public void testCalculateInSampleSizeLimitedByShortSide() {
+        Assert.assertEquals(2, BitmapUtils.calculateInSampleSize(4000, 1000, 1000, 300));
+    }
+
+    public void testDecodedDimensionsRoundUp() {
+        int[] dimensions = BitmapUtils.getDecodedDimensions(4001, 3001, 4);
+        Assert.assertEquals(1001, dimensions[0]);
+        Assert.assertEquals(751, dimensions[1]);
+    }
+
+    public void testDecodedDimensionsUsePowerOfTwoSampleSize() {
+        // A sample size of 6 decodes like 4
+        int[] dimensions = BitmapUtils.getDecodedDimensions(4000, 3000, 6);
+        Assert.assertEquals(1000, dimensions[0]);
+        Assert.assertEquals(750, dimensions[1]);
+    }
+
+    public void testDecodedBytes() {
+        Assert.assertEquals(4L * 1000 * 750, BitmapUtils.getDecodedBytes(4000, 3000, 4));
+        // 100 MP doesn't overflow
+        Assert.assertEquals(4L * 20000 * 10000, BitmapUtils.getDecodedBytes(20000, 10000, 1));
+    }
+
+    public void testBandHeightFitsBudget() {
+        // 1000 sampled pixels per row, 4000 bytes
+        int rows = BitmapUtils.getBandHeight(4000, 4, 4000 * 100);
+        Assert.assertEquals(400, rows);
+        Assert.assertEquals(0, rows % 4);
+    }
+
+    public void testBandHeightUsesPowerOfTwoSampleSize() {
+        Assert.assertEquals(BitmapUtils.getBandHeight(4000, 4, 4000 * 100),
+                BitmapUtils.getBandHeight(4000, 6, 4000 * 100));
+    }
+
+    public void testBandHeightIsAtLeastOneSampledRow() {
+        Assert.assertEquals(8, BitmapUtils.getBandHeight(100000, 8, 1));
+    }
+
+    public void testTransposedOrientations() {
+        Assert.assertFalse(BitmapUtils.isTransposed(ExifInterface.ORIENTATION_NORMAL));
+        Assert.assertFalse(BitmapUtils.isTransposed(ExifInterface.ORIENTATION_ROTATE_180));
+        Assert.assertFalse(BitmapUtils.isTransposed(ExifInterface.ORIENTATION_FLIP_VERTICAL));
+        Assert.assertTrue(BitmapUtils.isTransposed(ExifInterface.ORIENTATION_TRANSPOSE));
+        Assert.assertTrue(BitmapUtils.isTransposed(ExifInterface.ORIENTATION_ROTATE_90));
+        Assert.assertTrue(BitmapUtils.isTransposed(ExifInterface.ORIENTATION_ROTATE_270));
+    }
+
+    public void testTransformScalesNormalImage() {
+        float[] values = BitmapUtils.getTransformValues(ExifInterface.ORIENTATION_NORMAL, 400, 300, 200, 150);
+        assertMaps(values, 0, 0, 0, 0);
+        assertMaps(values, 400, 300, 200, 150);
+    }
+
+    public void testTransformRotate90() {
+        // The top left corner of the source ends up top right
+        float[] values = BitmapUtils.getTransformValues(ExifInterface.ORIENTATION_ROTATE_90, 400, 300, 300, 400);
+        assertMaps(values, 0, 0, 300, 0);
+        assertMaps(values, 400, 0, 300, 400);
+        assertMaps(values, 0, 300, 0, 0);
+    }
+
+    public void testTransformRotate270Scaled() {
+        float[] values = BitmapUtils.getTransformValues(ExifInterface.ORIENTATION_ROTATE_270, 800, 600, 300, 400);
+        assertMaps(values, 0, 0, 0, 400);
+        assertMaps(values, 800, 0, 0, 0);
+        assertMaps(values, 800, 600, 300, 0);
+    }
+
+    public void testTransformRotate180() {
+        float[] values = BitmapUtils.getTransformValues(ExifInterface.ORIENTATION_ROTATE_180, 400, 300, 400, 300);
+        assertMaps(values, 0, 0, 400, 300);
+        assertMaps(values, 400, 300, 0, 0);
+    }
+
+    public void testTransformMirrored() {
+        float[] values = BitmapUtils.getTransformValues(ExifInterface.ORIENTATION_FLIP_HORIZONTAL, 400, 300,
+                400, 300);
+        assertMaps(values, 0, 0, 400, 0);
+        assertMaps(values, 0, 300, 400, 300);
+
+        values = BitmapUtils.getTransformValues(ExifInterface.ORIENTATION_FLIP_VERTICAL, 400, 300, 400, 300);
+        assertMaps(values, 0, 0, 0, 300);
+
+        // Transpose mirrors along the main diagonal, transverse along the other one
+        values = BitmapUtils.getTransformValues(ExifInterface.ORIENTATION_TRANSPOSE, 400, 300, 300, 400);
+        assertMaps(values, 0, 0, 0, 0);
+        assertMaps(values, 400, 0, 0, 400);
+
+        values = BitmapUtils.getTransformValues(ExifInterface.ORIENTATION_TRANSVERSE, 400, 300, 300, 400);
+        assertMaps(values, 0, 0, 300, 400);
+        assertMaps(values, 400, 300, 0, 0);
+    }
+
+    private static void assertMaps(float[] values, float x, float y, float expectedX, float expectedY) {
+        Assert.assertEquals(expectedX, values[0] * x + values[1] * y + values[2], 0.001f);
+        Assert.assertEquals(expectedY, values[3] * x + values[4] * y + values[5], 0.001f);
+    }
 }
@@ -0,0 +1,43 @@
+package com.hanihashemi.imagepicker;
+
+import com.hanihashemi.imagepicker.utils.BufferPool;
+import com.hanihashemi.imagepicker.utils.FileUtils;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+public class BufferPoolTestCase extends TestCase {
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        BufferPool.clear();
+    }
+
+    public void testReleasedBufferIsReused() {
+        byte[] buffer = BufferPool.acquire();
+        Assert.assertEquals(BufferPool.BUFFER_SIZE, buffer.length);
+        BufferPool.release(buffer);
+
+        Assert.assertSame(buffer, BufferPool.acquire());
+        Assert.assertEquals(1, BufferPool.getAllocationCount());
+    }
+
+    public void testForeignBuffersAreNotPooled() {
+        BufferPool.release(new byte[2048]);
+
+        Assert.assertEquals(BufferPool.BUFFER_SIZE, BufferPool.acquire().length);
+    }
+
+    public void testStreamCopiesDoNotAllocatePerMegabyte() throws IOException {
+        byte[] content = new byte[8 * 1024 * 1024];
+        for (int i = 0; i < 20; i++) {
+            FileUtils.copyLarge(new ByteArrayInputStream(content), new ByteArrayOutputStream(content.length));
+        }
+
+        Assert.assertEquals(1, BufferPool.getAllocationCount());
+    }
+}
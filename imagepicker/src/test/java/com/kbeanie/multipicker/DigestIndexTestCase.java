@@ -0,0 +1,46 @@
+package com.hanihashemi.imagepicker;
+
+import com.hanihashemi.imagepicker.core.cache.DigestIndex;
+
+import junit.framework.Assert;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class DigestIndexTestCase extends TempDirectoryTestCase {
+    public void testFindIndexedFile() throws IOException {
+        File file = write("image.jpg", "content");
+        DigestIndex.getInstance(directory).put("abc", file);
+
+        Assert.assertEquals(file.getAbsolutePath(), DigestIndex.getInstance(directory).find("abc"));
+        Assert.assertNull(DigestIndex.getInstance(directory).find("def"));
+    }
+
+    public void testIgnoreChangedFile() throws IOException {
+        File file = write("image.jpg", "content");
+        DigestIndex.getInstance(directory).put("abc", file);
+        write("image.jpg", "other content");
+
+        Assert.assertNull(DigestIndex.getInstance(directory).find("abc"));
+    }
+
+    public void testIgnoreDeletedFile() throws IOException {
+        File file = write("image.jpg", "content");
+        DigestIndex.getInstance(directory).put("abc", file);
+        Assert.assertTrue(file.delete());
+
+        Assert.assertNull(DigestIndex.getInstance(directory).find("abc"));
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(directory, name);
+        FileOutputStream stream = new FileOutputStream(file);
+        try {
+            stream.write(content.getBytes("UTF-8"));
+        } finally {
+            stream.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,205 @@
+package com.hanihashemi.imagepicker;
+
+import com.hanihashemi.imagepicker.utils.CancellationToken;
+import com.hanihashemi.imagepicker.utils.FileUtils;
+
+import junit.framework.Assert;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Random;
+
+public class FileUtilsTestCase extends TempDirectoryTestCase {
+    public void testContentFingerprintSameContent() throws IOException {
+        byte[] content = randomBytes(300 * 1024, 1);
+        File first = write("first.jpg", content);
+        File second = write("second.jpg", content);
+
+        Assert.assertEquals(FileUtils.getContentFingerprint(first, 64 * 1024),
+                FileUtils.getContentFingerprint(second, 64 * 1024));
+    }
+
+    public void testContentFingerprintDifferentTail() throws IOException {
+        byte[] content = randomBytes(300 * 1024, 1);
+        File first = write("first.jpg", content);
+        content[content.length - 1]++;
+        File second = write("second.jpg", content);
+
+        Assert.assertFalse(FileUtils.getContentFingerprint(first, 64 * 1024)
+                .equals(FileUtils.getContentFingerprint(second, 64 * 1024)));
+    }
+
+    public void testContentFingerprintSmallFile() throws IOException {
+        File first = write("first.jpg", randomBytes(100, 1));
+        File second = write("second.jpg", randomBytes(100, 2));
+
+        Assert.assertFalse(FileUtils.getContentFingerprint(first, 64 * 1024)
+                .equals(FileUtils.getContentFingerprint(second, 64 * 1024)));
+    }
+
+    public void testCopyFile() throws IOException {
+        byte[] content = randomBytes(1024 * 1024 + 17, 1);
+        File source = write("source.jpg", content);
+        File destination = new File(directory, "destination.jpg");
+
+        FileUtils.copyFile(source, destination);
+
+        Assert.assertTrue(Arrays.equals(content, read(destination)));
+        Assert.assertEquals(source.lastModified(), destination.lastModified());
+    }
+
+    public void testPlaceFileMovesOwnedFile() throws IOException {
+        byte[] content = randomBytes(10 * 1024, 1);
+        File source = write("source.jpg", content);
+        File destination = new File(new File(directory, "pictures"), "destination.jpg");
+
+        FileUtils.placeFile(source, destination, true);
+
+        Assert.assertFalse(source.exists());
+        Assert.assertTrue(Arrays.equals(content, read(destination)));
+        destination.delete();
+        destination.getParentFile().delete();
+    }
+
+    public void testPlaceFileCopiesUserFile() throws IOException {
+        byte[] content = randomBytes(10 * 1024, 1);
+        File source = write("source.jpg", content);
+        File destination = new File(directory, "destination.jpg");
+
+        FileUtils.placeFile(source, destination, false);
+
+        Assert.assertTrue(Arrays.equals(content, read(source)));
+        Assert.assertTrue(Arrays.equals(content, read(destination)));
+    }
+
+    public void testCopyLargeFromFileStreamContinuesAtPosition() throws IOException {
+        byte[] content = randomBytes(100 * 1024, 1);
+        File source = write("source.jpg", content);
+        File destination = new File(directory, "destination.jpg");
+
+        FileInputStream input = new FileInputStream(source);
+        FileOutputStream output = new FileOutputStream(destination);
+        try {
+            Assert.assertEquals(10, input.skip(10));
+            Assert.assertEquals(content.length - 10, FileUtils.copyLarge(input, output));
+            Assert.assertEquals(-1, input.read());
+        } finally {
+            input.close();
+            output.close();
+        }
+        Assert.assertTrue(Arrays.equals(Arrays.copyOfRange(content, 10, content.length), read(destination)));
+    }
+
+    public void testCopyLargeFromNonFileStream() throws IOException {
+        byte[] content = randomBytes(100 * 1024, 1);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        Assert.assertEquals(content.length, FileUtils.copyLarge(new ByteArrayInputStream(content), output));
+        Assert.assertTrue(Arrays.equals(content, output.toByteArray()));
+    }
+
+    /**
+     * Compares the channel copy with the stream loop it replaces, both have to produce the same file
+     */
+    public void testCopyLargeChannelMatchesStream() throws IOException {
+        byte[] content = randomBytes(2 * 1024 * 1024 + 17, 7);
+        File source = write("source.jpg", content);
+        File channel = new File(directory, "channel.jpg");
+        File stream = new File(directory, "stream.jpg");
+
+        Assert.assertEquals(content.length,
+                copy(new FileInputStream(source), channel, CancellationToken.NONE));
+        // Not a FileInputStream, so the copy goes through the buffer loop
+        Assert.assertEquals(content.length,
+                copy(new BufferedInputStream(new FileInputStream(source)), stream, CancellationToken.NONE));
+
+        Assert.assertTrue(Arrays.equals(content, read(channel)));
+        Assert.assertTrue(Arrays.equals(read(channel), read(stream)));
+    }
+
+    public void testCopyLargeStopsWhenCancelled() throws IOException {
+        final int[] reads = new int[1];
+        InputStream input = new ByteArrayInputStream(new byte[4 * 1024 * 1024]) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                reads[0]++;
+                return super.read(b, off, len);
+            }
+        };
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            FileUtils.copyLarge(input, output, new CancellationToken() {
+                @Override
+                public boolean isCancelled() {
+                    return reads[0] > 2;
+                }
+            });
+            Assert.fail("Copy wasn't cancelled");
+        } catch (InterruptedIOException e) {
+            Assert.assertEquals(3, reads[0]);
+            Assert.assertTrue(output.size() < 4 * 1024 * 1024);
+        }
+    }
+
+    public void testCopyLargeFileStreamsStopWhenCancelled() throws IOException {
+        File source = write("cancel-source", randomBytes(1024, 11));
+        File destination = new File(directory, "cancel-destination");
+        try {
+            copy(new FileInputStream(source), destination, new CancellationToken() {
+                @Override
+                public boolean isCancelled() {
+                    return true;
+                }
+            });
+            Assert.fail("Copy wasn't cancelled");
+        } catch (InterruptedIOException e) {
+            Assert.assertEquals(0, destination.length());
+        }
+    }
+
+    private long copy(InputStream input, File destination, CancellationToken cancellation) throws IOException {
+        FileOutputStream output = new FileOutputStream(destination);
+        try {
+            return FileUtils.copyLarge(input, output, cancellation);
+        } finally {
+            input.close();
+            output.close();
+        }
+    }
+
+    private byte[] read(File file) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        FileInputStream input = new FileInputStream(file);
+        try {
+            FileUtils.copyLarge(input, output);
+        } finally {
+            input.close();
+        }
+        return output.toByteArray();
+    }
+
+    private byte[] randomBytes(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private File write(String name, byte[] content) throws IOException {
+        File file = new File(directory, name);
+        FileOutputStream stream = new FileOutputStream(file);
+        try {
+            stream.write(content);
+        } finally {
+            stream.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,104 @@
+package com.hanihashemi.imagepicker;
+
+import com.hanihashemi.imagepicker.core.cache.HttpCache;
+
+import junit.framework.Assert;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class HttpCacheTestCase extends TempDirectoryTestCase {
+    private HttpCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        cache = HttpCache.getInstance(new File(directory, "cache"));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        cache.clear();
+        super.tearDown();
+    }
+
+    public void testEvictsLeastRecentlyUsed() throws IOException {
+        cache.setMaxSize(250);
+        cache.put("http://host/a.jpg", write("a.jpg", 100), "\"a\"", null, "image/jpeg", null);
+        cache.put("http://host/b.jpg", write("b.jpg", 100), "\"b\"", null, "image/jpeg", null);
+        // Using a makes b the least recently used
+        HttpCache.Entry a = cache.get("http://host/a.jpg");
+        Assert.assertTrue(cache.reuse(a, new File(directory, "a-copy.jpg"), true, null, null));
+        cache.put("http://host/c.jpg", write("c.jpg", 100), "\"c\"", null, "image/jpeg", null);
+
+        Assert.assertNotNull(cache.get("http://host/a.jpg"));
+        Assert.assertNull(cache.get("http://host/b.jpg"));
+        Assert.assertNotNull(cache.get("http://host/c.jpg"));
+        Assert.assertEquals(200, cache.getSize());
+        Assert.assertEquals(1, cache.getEvictionCount());
+        Assert.assertEquals(100, new File(directory, "a-copy.jpg").length());
+    }
+
+    public void testEntryKeepsValidators() throws IOException {
+        cache.put("http://host/a.jpg", write("a.jpg", 100), "\"a\"", "Mon, 02 Oct 2017 10:00:00 GMT",
+                "image/png", "max-age=0");
+
+        HttpCache.Entry entry = cache.get("http://host/a.jpg");
+        Assert.assertEquals("\"a\"", entry.getETag());
+        Assert.assertEquals("Mon, 02 Oct 2017 10:00:00 GMT", entry.getLastModified());
+        Assert.assertEquals("image/png", entry.getContentType());
+        Assert.assertFalse(entry.isFresh());
+    }
+
+    public void testResponsesThatCantBeRevalidatedAreNotStored() throws IOException {
+        cache.put("http://host/a.jpg", write("a.jpg", 100), null, null, "image/jpeg", null);
+        cache.put("http://host/b.jpg", write("b.jpg", 100), "\"b\"", null, "image/jpeg", "no-store");
+
+        Assert.assertNull(cache.get("http://host/a.jpg"));
+        Assert.assertNull(cache.get("http://host/b.jpg"));
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+    public void testLargerThanCacheIsNotStored() throws IOException {
+        cache.setMaxSize(50);
+        cache.put("http://host/a.jpg", write("a.jpg", 100), "\"a\"", null, "image/jpeg", null);
+
+        Assert.assertNull(cache.get("http://host/a.jpg"));
+        Assert.assertEquals(0, cache.getEvictionCount());
+    }
+
+    public void testEvictedEntryIsNotReused() throws IOException {
+        cache.put("http://host/a.jpg", write("a.jpg", 100), "\"a\"", null, "image/jpeg", null);
+        HttpCache.Entry entry = cache.get("http://host/a.jpg");
+        cache.clear();
+
+        Assert.assertFalse(cache.reuse(entry, new File(directory, "a-copy.jpg"), false, null, null));
+    }
+
+    public void testChangingTheDownloadDoesntReachTheEntry() throws IOException {
+        File download = write("a.jpg", 100);
+        cache.put("http://host/a.jpg", download, "\"a\"", null, "image/jpeg", null);
+        FileOutputStream output = new FileOutputStream(download);
+        try {
+            output.write(new byte[]{1, 2, 3});
+        } finally {
+            output.close();
+        }
+
+        File copy = new File(directory, "a-copy.jpg");
+        Assert.assertTrue(cache.reuse(cache.get("http://host/a.jpg"), copy, false, null, null));
+        Assert.assertEquals(100, copy.length());
+    }
+
+    private File write(String name, int length) throws IOException {
+        File file = new File(directory, name);
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(new byte[length]);
+        } finally {
+            output.close();
+        }
+        return file;
+    }
+}
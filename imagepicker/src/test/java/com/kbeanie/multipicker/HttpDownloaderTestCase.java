@@ -0,0 +1,432 @@
+package com.hanihashemi.imagepicker;
+
+import com.hanihashemi.imagepicker.core.cache.HttpCache;
+import com.hanihashemi.imagepicker.core.net.HttpDownloader;
+import com.hanihashemi.imagepicker.utils.CancellationToken;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import junit.framework.Assert;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HttpDownloaderTestCase extends TempDirectoryTestCase {
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private FileHandler handler;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        handler = new FileHandler();
+        serverExecutor = Executors.newCachedThreadPool();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/photo", handler);
+        server.setExecutor(serverExecutor);
+        server.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        super.tearDown();
+    }
+
+    public void testSmallFileInOneRequest() throws IOException {
+        handler.content = randomBytes(10 * 1024);
+        File destination = new File(directory, "photo.jpg");
+
+        HttpDownloader.Result result = new HttpDownloader.Builder().build()
+                .download(getUrl(), destination, null);
+
+        Assert.assertEquals(1, result.getSegments());
+        Assert.assertEquals(1, handler.requests.get());
+        Assert.assertEquals("image/jpeg", result.getContentType());
+        assertContent(destination);
+    }
+
+    public void testLargeFileInParallelSegments() throws IOException {
+        handler.content = randomBytes(256 * 1024);
+        File destination = new File(directory, "photo.jpg");
+
+        HttpDownloader.Result result = new HttpDownloader.Builder()
+                .setMaxSegments(4)
+                .setMinSegmentBytes(32 * 1024)
+                .build()
+                .download(getUrl(), destination, null);
+
+        Assert.assertEquals(4, result.getSegments());
+        Assert.assertEquals(4, handler.requests.get());
+        Assert.assertEquals(handler.content.length, result.getBytesTransferred());
+        assertContent(destination);
+    }
+
+    public void testNoSegmentsWithoutRangeSupport() throws IOException {
+        handler.content = randomBytes(256 * 1024);
+        handler.ranges = false;
+        File destination = new File(directory, "photo.jpg");
+
+        HttpDownloader.Result result = new HttpDownloader.Builder()
+                .setMinSegmentBytes(32 * 1024)
+                .build()
+                .download(getUrl(), destination, null);
+
+        Assert.assertEquals(1, result.getSegments());
+        assertContent(destination);
+    }
+
+    public void testResumeAfterStalledResponse() throws IOException {
+        handler.content = randomBytes(200 * 1024);
+        handler.truncatedResponses.set(1);
+        File destination = new File(directory, "photo.jpg");
+
+        HttpDownloader.Result result = new HttpDownloader.Builder()
+                .setRetryDelay(0)
+                .setReadTimeout(300)
+                .build()
+                .download(getUrl(), destination, null);
+
+        Assert.assertEquals(1, result.getRetries());
+        // Only the missing half was requested again
+        Assert.assertEquals(handler.content.length, result.getBytesTransferred());
+        Assert.assertTrue(handler.rangeHeaders.get(1).startsWith("bytes=" + handler.content.length / 2 + "-"));
+        assertContent(destination);
+    }
+
+    public void testStartOverWithoutValidator() throws IOException {
+        handler.content = randomBytes(200 * 1024);
+        handler.etag = null;
+        handler.truncatedResponses.set(1);
+        File destination = new File(directory, "photo.jpg");
+
+        HttpDownloader.Result result = new HttpDownloader.Builder()
+                .setRetryDelay(0)
+                .setReadTimeout(300)
+                .build()
+                .download(getUrl(), destination, null);
+
+        Assert.assertEquals(1, result.getRetries());
+        Assert.assertEquals(handler.content.length + handler.content.length / 2, result.getBytesTransferred());
+        assertContent(destination);
+    }
+
+    public void testResumeOfChangedFileStartsOver() throws IOException {
+        handler.content = randomBytes(200 * 1024);
+        handler.changedContent = randomBytes(150 * 1024);
+        handler.truncatedResponses.set(1);
+        File destination = new File(directory, "photo.jpg");
+
+        HttpDownloader.Result result = new HttpDownloader.Builder()
+                .setRetryDelay(0)
+                .setReadTimeout(300)
+                .build()
+                .download(getUrl(), destination, null);
+
+        Assert.assertEquals(1, result.getRetries());
+        // If-Range didn't match, the new file came whole
+        Assert.assertTrue(handler.rangeHeaders.get(1).startsWith("bytes=" + 100 * 1024 + "-"));
+        assertContent(destination);
+    }
+
+    public void testChangedFileRestartsSegmentedDownload() throws IOException {
+        handler.content = randomBytes(256 * 1024);
+        handler.changedContent = randomBytes(192 * 1024);
+        handler.truncatedResponses.set(1);
+        File destination = new File(directory, "photo.jpg");
+
+        HttpDownloader.Result result = new HttpDownloader.Builder()
+                .setRetryDelay(0)
+                .setReadTimeout(300)
+                .setMaxSegments(4)
+                .setMinSegmentBytes(32 * 1024)
+                .build()
+                .download(getUrl(), destination, null);
+
+        Assert.assertEquals(4, result.getSegments());
+        assertContent(destination);
+    }
+
+    public void testErrorStatusIsNotRetried() {
+        handler.status = 404;
+        try {
+            new HttpDownloader.Builder().setRetryDelay(0).build()
+                    .download(getUrl(), new File(directory, "photo.jpg"), null);
+            Assert.fail("Expected an HttpStatusException");
+        } catch (HttpDownloader.HttpStatusException e) {
+            Assert.assertEquals(404, e.getStatusCode());
+        } catch (IOException e) {
+            Assert.fail("Unexpected " + e);
+        }
+        Assert.assertEquals(1, handler.requests.get());
+    }
+
+    public void testServerErrorIsRetried() throws IOException {
+        handler.content = randomBytes(1024);
+        handler.status = 503;
+        handler.failedResponses.set(2);
+        File destination = new File(directory, "photo.jpg");
+
+        HttpDownloader.Result result = new HttpDownloader.Builder().setRetryDelay(0).build()
+                .download(getUrl(), destination, null);
+
+        Assert.assertEquals(2, result.getRetries());
+        assertContent(destination);
+    }
+
+    public void testReadTimeout() {
+        handler.content = randomBytes(1024);
+        handler.delayMillis = 2000;
+        try {
+            new HttpDownloader.Builder().setReadTimeout(200).setMaxRetries(0).build()
+                    .download(getUrl(), new File(directory, "photo.jpg"), null);
+            Assert.fail("Expected a timeout");
+        } catch (SocketTimeoutException e) {
+            // Expected
+        } catch (IOException e) {
+            Assert.fail("Unexpected " + e);
+        }
+    }
+
+    public void testConnectionLimitIsSharedByDownloads() throws Exception {
+        handler.content = randomBytes(1024);
+        handler.delayMillis = 100;
+        final HttpDownloader downloader = new HttpDownloader.Builder().setMaxConnections(2).build();
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            final File destination = new File(directory, "photo-" + i + ".jpg");
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        downloader.download(getUrl(), destination, null);
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertTrue(errors.toString(), errors.isEmpty());
+        Assert.assertEquals(5, handler.requests.get());
+        Assert.assertEquals(2, handler.maxActive.get());
+    }
+
+    public void testCancelled() {
+        handler.content = randomBytes(1024);
+        try {
+            new HttpDownloader.Builder().build().download(getUrl(), new File(directory, "photo.jpg"),
+                    new CancellationToken() {
+                        @Override
+                        public boolean isCancelled() {
+                            return true;
+                        }
+                    });
+            Assert.fail("Expected an InterruptedIOException");
+        } catch (InterruptedIOException e) {
+            // Expected
+        } catch (IOException e) {
+            Assert.fail("Unexpected " + e);
+        }
+        Assert.assertEquals(0, handler.requests.get());
+    }
+
+    public void testCachedResponseIsRevalidated() throws IOException {
+        handler.content = randomBytes(10 * 1024);
+        HttpCache cache = HttpCache.getInstance(new File(directory, "cache"));
+        HttpDownloader downloader = new HttpDownloader.Builder().build();
+
+        HttpDownloader.Result first = downloader.download(getUrl(), new File(directory, "first.jpg"), cache, null);
+        File destination = new File(directory, "second.jpg");
+        HttpDownloader.Result second = downloader.download(getUrl(), destination, cache, null);
+
+        Assert.assertFalse(first.isFromCache());
+        Assert.assertTrue(second.isFromCache());
+        Assert.assertEquals(0, second.getBytesTransferred());
+        Assert.assertEquals(2, handler.requests.get());
+        Assert.assertEquals(1, handler.notModified.get());
+        Assert.assertEquals(1, cache.getMissCount());
+        Assert.assertEquals(1, cache.getRevalidationCount());
+        Assert.assertEquals(0, cache.getHitCount());
+        assertContent(destination);
+        cache.clear();
+    }
+
+    public void testFreshCachedResponseNeedsNoRequest() throws IOException {
+        handler.content = randomBytes(10 * 1024);
+        handler.cacheControl = "public, max-age=600";
+        HttpCache cache = HttpCache.getInstance(new File(directory, "cache"));
+        HttpDownloader downloader = new HttpDownloader.Builder().build();
+
+        downloader.download(getUrl(), new File(directory, "first.jpg"), cache, null);
+        File destination = new File(directory, "second.jpg");
+        HttpDownloader.Result second = downloader.download(getUrl(), destination, cache, null);
+
+        Assert.assertTrue(second.isFromCache());
+        Assert.assertEquals(1, handler.requests.get());
+        Assert.assertEquals(1, cache.getHitCount());
+        assertContent(destination);
+        cache.clear();
+    }
+
+    public void testChangedResponseReplacesCachedOne() throws IOException {
+        handler.content = randomBytes(10 * 1024);
+        HttpCache cache = HttpCache.getInstance(new File(directory, "cache"));
+        HttpDownloader downloader = new HttpDownloader.Builder().build();
+
+        downloader.download(getUrl(), new File(directory, "first.jpg"), cache, null);
+        handler.content = randomBytes(12 * 1024);
+        handler.etag = "\"v2\"";
+        File destination = new File(directory, "second.jpg");
+        HttpDownloader.Result second = downloader.download(getUrl(), destination, cache, null);
+
+        Assert.assertFalse(second.isFromCache());
+        Assert.assertEquals(2, cache.getMissCount());
+        Assert.assertEquals(12 * 1024, cache.getSize());
+        assertContent(destination);
+        cache.clear();
+    }
+
+    private String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/photo";
+    }
+
+    private void assertContent(File file) throws IOException {
+        byte[] actual = new byte[(int) file.length()];
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            input.readFully(actual);
+        } finally {
+            input.close();
+        }
+        Assert.assertTrue(Arrays.equals(handler.content, actual));
+    }
+
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    // Serves one file, with ranges, and can fail or stall halfway some of its responses
+    private static class FileHandler implements HttpHandler {
+        volatile byte[] content = new byte[0];
+        volatile String etag = "\"v1\"";
+        volatile boolean ranges = true;
+        volatile int status = 200;
+        volatile long delayMillis;
+        volatile String cacheControl;
+        // Replaces the content, with another ETag, once a response was truncated
+        volatile byte[] changedContent;
+        final AtomicInteger notModified = new AtomicInteger();
+        final AtomicInteger failedResponses = new AtomicInteger(Integer.MAX_VALUE);
+        final AtomicInteger truncatedResponses = new AtomicInteger();
+        final AtomicInteger requests = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        private final AtomicInteger active = new AtomicInteger();
+        final List<String> rangeHeaders = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            requests.incrementAndGet();
+            int now = active.incrementAndGet();
+            int max = maxActive.get();
+            while (now > max && !maxActive.compareAndSet(max, now)) {
+                max = maxActive.get();
+            }
+            try {
+                serve(exchange);
+            } finally {
+                active.decrementAndGet();
+                exchange.close();
+            }
+        }
+
+        private void serve(HttpExchange exchange) throws IOException {
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            if (status != 200 && failedResponses.getAndDecrement() > 0) {
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            if (etag != null && etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModified.incrementAndGet();
+                exchange.getResponseHeaders().set("ETag", etag);
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            rangeHeaders.add(String.valueOf(range));
+            long first = 0;
+            long last = content.length - 1;
+            int code = 200;
+            if (this.ranges && range != null && (ifRange == null || ifRange.equals(etag))) {
+                String[] bounds = range.substring("bytes=".length()).split("-", -1);
+                first = Long.parseLong(bounds[0]);
+                if (!bounds[1].isEmpty()) {
+                    last = Long.parseLong(bounds[1]);
+                }
+                code = 206;
+                exchange.getResponseHeaders().set("Content-Range",
+                        "bytes " + first + "-" + last + "/" + content.length);
+            }
+            if (this.ranges) {
+                exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            }
+            if (etag != null) {
+                exchange.getResponseHeaders().set("ETag", etag);
+            }
+            if (cacheControl != null) {
+                exchange.getResponseHeaders().set("Cache-Control", cacheControl);
+            }
+            exchange.getResponseHeaders().set("Content-Type", "image/jpeg");
+            int length = (int) (last - first + 1);
+            exchange.sendResponseHeaders(code, length);
+            OutputStream body = exchange.getResponseBody();
+            if (truncatedResponses.getAndDecrement() > 0) {
+                // The rest never comes, the client times out
+                body.write(content, (int) first, length / 2);
+                body.flush();
+                try {
+                    body.close();
+                } catch (IOException e) {
+                    // Expected, the length doesn't match
+                }
+                if (changedContent != null) {
+                    content = changedContent;
+                    etag = "\"v2\"";
+                }
+                return;
+            }
+            body.write(content, (int) first, length);
+        }
+    }
+}
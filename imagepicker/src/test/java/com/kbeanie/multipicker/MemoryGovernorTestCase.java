@@ -0,0 +1,126 @@
+package com.hanihashemi.imagepicker;
+
+import android.content.ComponentCallbacks2;
+
+import com.hanihashemi.imagepicker.api.exceptions.PickerException;
+import com.hanihashemi.imagepicker.core.threads.MemoryGovernor;
+import com.hanihashemi.imagepicker.utils.CancellationToken;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class MemoryGovernorTestCase extends TestCase {
+
+    public void testAdmitsWithinBudget() throws PickerException {
+        MemoryGovernor governor = new MemoryGovernor(100);
+        governor.acquire(40, CancellationToken.NONE);
+        governor.acquire(60, CancellationToken.NONE);
+        Assert.assertEquals(100, governor.getBytesInUse());
+        governor.release(40);
+        governor.release(60);
+        Assert.assertEquals(0, governor.getBytesInUse());
+        Assert.assertEquals(0, governor.getWaitCount());
+    }
+
+    public void testAdmitsOversizedDecodeAlone() throws PickerException {
+        MemoryGovernor governor = new MemoryGovernor(100);
+        governor.acquire(500, CancellationToken.NONE);
+        Assert.assertEquals(500, governor.getBytesInUse());
+        governor.release(500);
+    }
+
+    public void testWaitsUntilThereIsRoom() throws Exception {
+        final MemoryGovernor governor = new MemoryGovernor(100);
+        governor.acquire(80, CancellationToken.NONE);
+        CountDownLatch admitted = acquireInBackground(governor, 40, CancellationToken.NONE, null);
+        Assert.assertFalse(admitted.await(200, TimeUnit.MILLISECONDS));
+        governor.release(80);
+        Assert.assertTrue(admitted.await(2, TimeUnit.SECONDS));
+        Assert.assertEquals(40, governor.getBytesInUse());
+        Assert.assertEquals(1, governor.getWaitCount());
+    }
+
+    public void testAdmitsInOrder() throws Exception {
+        MemoryGovernor governor = new MemoryGovernor(100);
+        governor.acquire(50, CancellationToken.NONE);
+        CountDownLatch large = acquireInBackground(governor, 80, CancellationToken.NONE, null);
+        Thread.sleep(100);
+        // Would fit, but the larger decode asked first
+        CountDownLatch small = acquireInBackground(governor, 10, CancellationToken.NONE, null);
+        Assert.assertFalse(small.await(200, TimeUnit.MILLISECONDS));
+        governor.release(50);
+        Assert.assertTrue(large.await(2, TimeUnit.SECONDS));
+        Assert.assertTrue(small.await(2, TimeUnit.SECONDS));
+    }
+
+    public void testCancelledWhileWaiting() throws Exception {
+        MemoryGovernor governor = new MemoryGovernor(100);
+        governor.acquire(100, CancellationToken.NONE);
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        AtomicBoolean failed = new AtomicBoolean();
+        CountDownLatch done = acquireInBackground(governor, 50, new CancellationToken() {
+            @Override
+            public boolean isCancelled() {
+                return cancelled.get();
+            }
+        }, failed);
+        cancelled.set(true);
+        Assert.assertTrue(done.await(2, TimeUnit.SECONDS));
+        Assert.assertTrue(failed.get());
+        Assert.assertEquals(100, governor.getBytesInUse());
+        // The cancelled decode doesn't hold up the next one
+        governor.release(100);
+        governor.acquire(50, CancellationToken.NONE);
+    }
+
+    public void testMemoryPressureLowersConcurrency() throws Exception {
+        MemoryGovernor governor = new MemoryGovernor(100);
+        Assert.assertEquals(Integer.MAX_VALUE, governor.getConcurrency());
+        governor.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+        Assert.assertEquals(2, governor.getConcurrency());
+        governor.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL);
+        Assert.assertEquals(1, governor.getConcurrency());
+        // Doesn't raise it again
+        governor.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+        Assert.assertEquals(1, governor.getConcurrency());
+
+        governor.acquire(10, CancellationToken.NONE);
+        CountDownLatch admitted = acquireInBackground(governor, 10, CancellationToken.NONE, null);
+        Assert.assertFalse(admitted.await(200, TimeUnit.MILLISECONDS));
+        governor.release(10);
+        Assert.assertTrue(admitted.await(2, TimeUnit.SECONDS));
+    }
+
+    public void testHiddenUiKeepsConcurrency() {
+        MemoryGovernor governor = new MemoryGovernor(100);
+        governor.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        Assert.assertEquals(Integer.MAX_VALUE, governor.getConcurrency());
+    }
+
+    // Counted down once the acquire returned or failed
+    private static CountDownLatch acquireInBackground(final MemoryGovernor governor, final long bytes,
+                                                      final CancellationToken cancellation,
+                                                      final AtomicBoolean failed) {
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    governor.acquire(bytes, cancellation);
+                } catch (PickerException e) {
+                    if (failed != null) {
+                        failed.set(true);
+                    }
+                }
+                done.countDown();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return done;
+    }
+}
@@ -0,0 +1,139 @@
+package com.hanihashemi.imagepicker;
+
+import com.hanihashemi.imagepicker.api.PipelineStage;
+import com.hanihashemi.imagepicker.api.callbacks.PickerMetricsListener;
+import com.hanihashemi.imagepicker.api.entity.BatchMetrics;
+import com.hanihashemi.imagepicker.api.entity.ChosenImage;
+import com.hanihashemi.imagepicker.api.entity.StageMetrics;
+import com.hanihashemi.imagepicker.core.threads.MetricsRecorder;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class MetricsRecorderTestCase extends TestCase {
+    private final List<StageMetrics> stages = new ArrayList<>();
+    private final List<BatchMetrics> batches = new ArrayList<>();
+    private final PickerMetricsListener listener = new PickerMetricsListener() {
+        @Override
+        public void onStageCompleted(StageMetrics metrics) {
+            stages.add(metrics);
+        }
+
+        @Override
+        public void onBatchCompleted(BatchMetrics metrics) {
+            batches.add(metrics);
+        }
+    };
+
+    public void testStageReportsBytesAndPeakBitmapMemory() {
+        MetricsRecorder recorder = new MetricsRecorder(listener);
+        ChosenImage image = new ChosenImage();
+
+        MetricsRecorder.Stage stage = recorder.startStage(3, image, PipelineStage.RESIZE);
+        stage.read(5000);
+        stage.bitmapAllocated(400);
+        stage.bitmapAllocated(100);
+        stage.bitmapReleased(400);
+        stage.bitmapReleased(100);
+        stage.written(1200);
+        stage.finish();
+        stage.finish();
+
+        Assert.assertEquals(1, stages.size());
+        StageMetrics metrics = stages.get(0);
+        Assert.assertEquals(3, metrics.getIndex());
+        Assert.assertSame(image, metrics.getImage());
+        Assert.assertEquals(PipelineStage.RESIZE, metrics.getStage());
+        Assert.assertEquals(5000, metrics.getBytesRead());
+        Assert.assertEquals(1200, metrics.getBytesWritten());
+        Assert.assertEquals(500, metrics.getBitmapBytes());
+        Assert.assertEquals(500, metrics.getPeakBitmapBytes());
+        Assert.assertTrue(metrics.getWallTimeNanos() >= 0);
+    }
+
+    public void testCarriedBitmapCountsForPeakButNotForDecodedBytes() {
+        MetricsRecorder recorder = new MetricsRecorder(listener);
+        ChosenImage image = new ChosenImage();
+
+        MetricsRecorder.Stage first = recorder.startStage(0, image, PipelineStage.THUMBNAIL, 1);
+        first.bitmapAllocated(400);
+        first.finish();
+        MetricsRecorder.Stage second = recorder.startStage(0, image, PipelineStage.THUMBNAIL, 2);
+        second.bitmapCarried(400);
+        second.bitmapAllocated(100);
+        second.bitmapReleased(400);
+        second.bitmapReleased(100);
+        second.finish();
+
+        StageMetrics metrics = stages.get(1);
+        Assert.assertEquals(2, metrics.getScale());
+        Assert.assertEquals(100, metrics.getBitmapBytes());
+        Assert.assertEquals(500, metrics.getPeakBitmapBytes());
+
+        BatchMetrics batch = recorder.finishBatch(Arrays.asList(image));
+        Assert.assertEquals(500, batch.getBitmapBytes());
+        Assert.assertEquals(500, batch.getPeakBitmapBytes());
+    }
+
+    public void testBatchSumsStagesOfAllImages() {
+        MetricsRecorder recorder = new MetricsRecorder(listener);
+        ChosenImage first = new ChosenImage();
+        first.setSuccess(true);
+        ChosenImage second = new ChosenImage();
+
+        // Two images holding bitmaps at the same time
+        MetricsRecorder.Stage one = recorder.startStage(0, first, PipelineStage.THUMBNAIL, 1);
+        MetricsRecorder.Stage two = recorder.startStage(1, second, PipelineStage.THUMBNAIL, 1);
+        one.bitmapAllocated(300);
+        two.bitmapAllocated(200);
+        one.bitmapReleased(300);
+        two.bitmapReleased(200);
+        one.finish();
+        two.finish();
+        MetricsRecorder.Stage copy = recorder.startStage(0, first, PipelineStage.COPY);
+        copy.read(1000);
+        copy.written(1000);
+        copy.finish();
+
+        recorder.finishBatch(Arrays.asList(first, second));
+
+        Assert.assertEquals(1, batches.size());
+        BatchMetrics batch = batches.get(0);
+        Assert.assertEquals(2, batch.getImageCount());
+        Assert.assertEquals(1, batch.getSuccessCount());
+        Assert.assertEquals(1000, batch.getBytesRead());
+        Assert.assertEquals(1000, batch.getBytesWritten());
+        Assert.assertEquals(500, batch.getBitmapBytes());
+        Assert.assertEquals(500, batch.getPeakBitmapBytes());
+        Assert.assertEquals(stages.get(0).getWallTimeNanos() + stages.get(1).getWallTimeNanos(),
+                batch.getStageTimeNanos(PipelineStage.THUMBNAIL));
+        Assert.assertEquals(0, batch.getStageTimeNanos(PipelineStage.RESIZE));
+    }
+
+    public void testBatchOfChunksIsCountedWithoutImages() {
+        MetricsRecorder recorder = new MetricsRecorder(listener);
+        MetricsRecorder.Stage stage = recorder.startStage(40, new ChosenImage(), PipelineStage.COPY);
+        stage.written(100);
+        stage.finish();
+
+        recorder.finishBatch(500, 498);
+
+        BatchMetrics batch = batches.get(0);
+        Assert.assertEquals(500, batch.getImageCount());
+        Assert.assertEquals(498, batch.getSuccessCount());
+        Assert.assertEquals(100, batch.getBytesWritten());
+    }
+
+    public void testWorksWithoutListener() {
+        MetricsRecorder recorder = new MetricsRecorder(null);
+        MetricsRecorder.Stage stage = recorder.startStage(0, new ChosenImage(), PipelineStage.IMPORT);
+        stage.read(10);
+        stage.finish();
+
+        Assert.assertEquals(10, recorder.finishBatch(new ArrayList<ChosenImage>()).getBytesRead());
+    }
+}
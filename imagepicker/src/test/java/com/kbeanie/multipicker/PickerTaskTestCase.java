@@ -0,0 +1,89 @@
+package com.hanihashemi.imagepicker;
+
+import com.hanihashemi.imagepicker.api.entity.ChosenImage;
+import com.hanihashemi.imagepicker.core.threads.PickerTaskImpl;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class PickerTaskTestCase extends TestCase {
+    public void testGetReturnsCompletedImages() throws Exception {
+        PickerTaskImpl task = new PickerTaskImpl();
+        List<ChosenImage> images = new ArrayList<>();
+
+        Assert.assertTrue(task.complete(images));
+
+        Assert.assertTrue(task.isDone());
+        Assert.assertSame(images, task.get());
+    }
+
+    public void testCancelledTaskIsNotCompleted() throws Exception {
+        PickerTaskImpl task = new PickerTaskImpl();
+
+        Assert.assertTrue(task.cancel());
+        Assert.assertFalse(task.complete(new ArrayList<ChosenImage>()));
+
+        Assert.assertTrue(task.isCancelled());
+        Assert.assertTrue(task.isDone());
+        try {
+            task.get();
+            Assert.fail("Cancelled task returned a result");
+        } catch (CancellationException e) {
+            // Expected
+        }
+    }
+
+    public void testCompletedTaskCanNotBeCancelled() {
+        PickerTaskImpl task = new PickerTaskImpl();
+        task.complete(new ArrayList<ChosenImage>());
+
+        Assert.assertFalse(task.cancel());
+        Assert.assertFalse(task.isCancelled());
+    }
+
+    public void testFailedTaskThrowsItsError() throws Exception {
+        PickerTaskImpl task = new PickerTaskImpl();
+        IllegalStateException error = new IllegalStateException();
+        task.fail(error);
+
+        try {
+            task.get();
+            Assert.fail("Failed task returned a result");
+        } catch (ExecutionException e) {
+            Assert.assertSame(error, e.getCause());
+        }
+    }
+
+    public void testGetTimesOutWhileRunning() throws Exception {
+        PickerTaskImpl task = new PickerTaskImpl();
+        try {
+            task.get(10, TimeUnit.MILLISECONDS);
+            Assert.fail("Running task returned a result");
+        } catch (TimeoutException e) {
+            Assert.assertFalse(task.isDone());
+        }
+    }
+
+    public void testGetWaitsForCancellationFromAnotherThread() throws Exception {
+        final PickerTaskImpl task = new PickerTaskImpl();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                task.cancel();
+            }
+        }).start();
+        try {
+            task.get(5, TimeUnit.SECONDS);
+            Assert.fail("Cancelled task returned a result");
+        } catch (CancellationException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.hanihashemi.imagepicker;
+
+import com.hanihashemi.imagepicker.api.entity.ChosenImage;
+import com.hanihashemi.imagepicker.core.threads.ProcessingJournal;
+
+import junit.framework.Assert;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ProcessingJournalTestCase extends TempDirectoryTestCase {
+    private final static List<String> URIS = Arrays.asList("content://media/external/images/media/1",
+            "content://media/external/images/media/2");
+
+    private File journals;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        journals = new File(directory, ".journal");
+    }
+
+    public void testResumesFromLastStage() throws IOException {
+        File imported = write("photo.jpg");
+        File resized = write("photo-resized.jpg");
+        ProcessingJournal journal = ProcessingJournal.open(journals, URIS, "options");
+        ChosenImage image = newImage(imported);
+        journal.record(1, ProcessingJournal.IMPORTED, image, Collections.singletonList(imported));
+        image.setTempFile(imported.getAbsolutePath());
+        image.setOriginalPath(resized.getAbsolutePath());
+        image.setWidth(800);
+        image.setHeight(600);
+        journal.record(1, ProcessingJournal.RESIZED, image, Arrays.asList(imported, resized));
+
+        // As if the process was killed and the batch picked again
+        journal = ProcessingJournal.open(journals, URIS, "options");
+        ChosenImage restored = new ChosenImage();
+        List<File> outputs = new ArrayList<>();
+        Assert.assertEquals(ProcessingJournal.RESIZED, journal.restore(1, restored, outputs));
+        Assert.assertEquals(resized.getAbsolutePath(), restored.getOriginalPath());
+        Assert.assertEquals(imported.getAbsolutePath(), restored.getTempFile());
+        Assert.assertEquals("image/jpeg", restored.getMimeType());
+        Assert.assertEquals(4, restored.getSize());
+        Assert.assertEquals(800, restored.getWidth());
+        Assert.assertEquals("abc", restored.getDigest());
+        Assert.assertEquals(Arrays.asList(imported, resized), outputs);
+        Assert.assertEquals(0, journal.restore(0, new ChosenImage(), new ArrayList<File>()));
+    }
+
+    public void testFallsBackWhenFilesAreMissing() throws IOException {
+        File imported = write("photo.jpg");
+        File resized = write("photo-resized.jpg");
+        ProcessingJournal journal = ProcessingJournal.open(journals, URIS, "options");
+        ChosenImage image = newImage(imported);
+        journal.record(0, ProcessingJournal.IMPORTED, image, Collections.singletonList(imported));
+        image.setOriginalPath(resized.getAbsolutePath());
+        journal.record(0, ProcessingJournal.RESIZED, image, Arrays.asList(imported, resized));
+        Assert.assertTrue(resized.delete());
+
+        journal = ProcessingJournal.open(journals, URIS, "options");
+        ChosenImage restored = new ChosenImage();
+        Assert.assertEquals(ProcessingJournal.IMPORTED, journal.restore(0, restored, new ArrayList<File>()));
+        Assert.assertEquals(imported.getAbsolutePath(), restored.getOriginalPath());
+    }
+
+    public void testIgnoresTornLine() throws IOException {
+        File imported = write("photo.jpg");
+        ProcessingJournal journal = ProcessingJournal.open(journals, URIS, "options");
+        journal.record(0, ProcessingJournal.IMPORTED, newImage(imported), null);
+        File file = journals.listFiles()[0];
+        FileOutputStream stream = new FileOutputStream(file, true);
+        stream.write(("R\t1\t2\t" + imported.getAbsolutePath()).getBytes("UTF-8"));
+        stream.close();
+
+        journal = ProcessingJournal.open(journals, URIS, "options");
+        Assert.assertEquals(0, journal.restore(1, new ChosenImage(), new ArrayList<File>()));
+        // Appended after the torn line, still readable
+        journal.record(1, ProcessingJournal.IMPORTED, newImage(imported), null);
+        journal = ProcessingJournal.open(journals, URIS, "options");
+        Assert.assertEquals(ProcessingJournal.IMPORTED, journal.restore(0, new ChosenImage(), new ArrayList<File>()));
+        Assert.assertEquals(ProcessingJournal.IMPORTED, journal.restore(1, new ChosenImage(), new ArrayList<File>()));
+    }
+
+    public void testOtherOptionsStartOver() throws IOException {
+        File imported = write("photo.jpg");
+        ProcessingJournal journal = ProcessingJournal.open(journals, URIS, "maxSize=800x600");
+        journal.record(0, ProcessingJournal.IMPORTED, newImage(imported), null);
+
+        journal = ProcessingJournal.open(journals, URIS, "maxSize=1024x768");
+        Assert.assertEquals(0, journal.restore(0, new ChosenImage(), new ArrayList<File>()));
+    }
+
+    public void testFindsInterruptedBatchUntilDeleted() throws IOException {
+        Assert.assertNull(ProcessingJournal.findInterrupted(journals));
+        ProcessingJournal journal = ProcessingJournal.open(journals, URIS, "options");
+        Assert.assertEquals(URIS, ProcessingJournal.findInterrupted(journals));
+        journal.delete();
+        Assert.assertNull(ProcessingJournal.findInterrupted(journals));
+    }
+
+    private ChosenImage newImage(File file) {
+        ChosenImage image = new ChosenImage();
+        image.setOriginalPath(file.getAbsolutePath());
+        image.setMimeType("image/jpeg");
+        image.setSize(file.length());
+        image.setDigest("abc");
+        return image;
+    }
+
+    private File write(String name) throws IOException {
+        File file = new File(directory, name);
+        FileOutputStream stream = new FileOutputStream(file);
+        stream.write(new byte[]{1, 2, 3, 4});
+        stream.close();
+        return file;
+    }
+}
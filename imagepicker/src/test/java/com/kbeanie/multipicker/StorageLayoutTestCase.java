@@ -0,0 +1,74 @@
+package com.hanihashemi.imagepicker;
+
+import com.hanihashemi.imagepicker.core.storage.StorageLayout;
+
+import junit.framework.Assert;
+
+import java.io.File;
+import java.io.IOException;
+
+public class StorageLayoutTestCase extends TempDirectoryTestCase {
+    public void testReserveUniqueNames() throws IOException {
+        StorageLayout layout = StorageLayout.getInstance(directory);
+
+        File first = layout.reserve("photo.jpg");
+        File second = layout.reserve("photo.jpg");
+        File third = layout.reserve("photo.jpg");
+
+        Assert.assertEquals("photo.jpg", first.getName());
+        Assert.assertEquals("photo-1.jpg", second.getName());
+        Assert.assertEquals("photo-2.jpg", third.getName());
+        Assert.assertTrue(first.exists());
+        Assert.assertEquals(first.getParentFile(), second.getParentFile());
+        Assert.assertEquals(directory, first.getParentFile().getParentFile());
+    }
+
+    public void testReserveNameWithoutExtension() throws IOException {
+        StorageLayout layout = StorageLayout.getInstance(directory);
+
+        layout.reserve("photo");
+
+        Assert.assertEquals("photo(1)", layout.reserve("photo").getName());
+    }
+
+    public void testReserveSkipsFilesCreatedBeforeLoading() throws IOException {
+        File shard = StorageLayout.getInstance(directory).reserve("other.jpg").getParentFile();
+        File second = new File(directory, "second");
+        File existing = new File(new File(second, shard.getName()), "other.jpg");
+        Assert.assertTrue(existing.getParentFile().mkdirs());
+        Assert.assertTrue(existing.createNewFile());
+
+        Assert.assertEquals("other-1.jpg", StorageLayout.getInstance(second).reserve("other.jpg").getName());
+    }
+
+    public void testReleaseAllowsNameAgain() throws IOException {
+        StorageLayout layout = StorageLayout.getInstance(directory);
+        File file = layout.reserve("photo.jpg");
+        Assert.assertTrue(file.delete());
+
+        layout.release(file);
+
+        Assert.assertEquals("photo.jpg", layout.reserve("photo.jpg").getName());
+    }
+
+    public void testReserveFailsWhenFileCantBeCreated() throws IOException {
+        File file = new File(directory, "file");
+        Assert.assertTrue(file.createNewFile());
+        StorageLayout layout = StorageLayout.getInstance(file);
+
+        try {
+            layout.reserve("photo.jpg");
+            Assert.fail("Reserved a file under a regular file");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    public void testContains() throws IOException {
+        StorageLayout layout = StorageLayout.getInstance(directory);
+
+        Assert.assertTrue(layout.contains(layout.reserve("photo.jpg")));
+        Assert.assertTrue(layout.contains(new File(directory, "legacy.jpg")));
+        Assert.assertFalse(layout.contains(new File(directory.getParentFile(), "photo.jpg")));
+    }
+}
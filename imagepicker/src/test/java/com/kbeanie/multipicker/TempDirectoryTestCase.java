@@ -0,0 +1,38 @@
+package com.hanihashemi.imagepicker;
+
+import junit.framework.Assert;
+import junit.framework.TestCase;
+
+import java.io.File;
+
+/**
+ * Test case with an empty directory of its own, created before and deleted with its content after every test
+ */
+public abstract class TempDirectoryTestCase extends TestCase {
+    protected File directory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        directory = File.createTempFile(getClass().getSimpleName(), "");
+        Assert.assertTrue(directory.delete());
+        Assert.assertTrue(directory.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        delete(directory);
+        super.tearDown();
+    }
+
+    protected static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+}